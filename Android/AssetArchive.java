@@ -0,0 +1,527 @@
+package com.autohome.ahkit.assets;
+
+import android.text.TextUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 资源包, 不解压直接读取.
+ * 打开时内存映射整个压缩包并读取中央目录建立索引; 未压缩(STORED)的条目直接返回映射切片, 不复制,
+ * 压缩(DEFLATED)的条目读取时解压. 资源包发布后不再修改, 可多线程同时读取
+ */
+public class AssetArchive {
+    // 资源包内资源路径的分隔符, 如 /data/xxx.zip!/images/a.png
+    public static final String ENTRY_SEPARATOR = "!/";
+
+    // 字符串编码
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+    // 中央目录结束记录标识
+    private static final int END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50;
+    // 中央目录记录标识
+    private static final int CENTRAL_DIR_SIGNATURE = 0x02014b50;
+    // 本地文件头标识
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    // 中央目录结束记录最小长度
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+    // 中央目录记录固定部分长度
+    private static final int CENTRAL_DIR_HEADER_SIZE = 46;
+    // 本地文件头固定部分长度
+    private static final int LOCAL_HEADER_SIZE = 30;
+    // 压缩方式
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    // 校验时的读取缓冲区大小
+    private static final int VERIFY_BUFFER_SIZE = 64 * 1024;
+
+    // 已打开的资源包, 键为资源包路径
+    private static final ConcurrentHashMap<String, AssetArchive> mArchives = new ConcurrentHashMap<>();
+
+    // 资源包路径
+    private final String mPath;
+    // 整个压缩包的只读映射
+    private final ByteBuffer mBuffer;
+    // 文件条目索引
+    private final Map<String, Entry> mEntries;
+    // 目录名称, 包括文件的各级上级目录
+    private final Set<String> mDirectories;
+
+    private AssetArchive(String path, ByteBuffer buffer, Map<String, Entry> entries, Set<String> directories) {
+        mPath = path;
+        mBuffer = buffer;
+        mEntries = entries;
+        mDirectories = directories;
+    }
+
+    /**
+     * 打开资源包并读取中央目录, 不缓存
+     *
+     * @param path 资源包路径
+     * @return 资源包 或 空(文件不存在、格式错误或含有不安全的条目名称)
+     */
+    public static AssetArchive open(String path) {
+        if (TextUtils.isEmpty(path)) return null;
+
+        MappedByteBuffer buffer = FileUtils.map(path);
+        if (buffer == null) return null;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            return index(path, buffer);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException e) {
+            // 格式错误的压缩包
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 获取已打开的资源包, 未打开时打开并缓存
+     *
+     * @param path 资源包路径
+     * @return 资源包 或 空
+     */
+    public static AssetArchive get(String path) {
+        if (TextUtils.isEmpty(path)) return null;
+
+        AssetArchive archive = mArchives.get(path);
+        if (archive != null) return archive;
+
+        archive = open(path);
+        if (archive == null) return null;
+        AssetArchive existing = mArchives.putIfAbsent(path, archive);
+        return existing != null ? existing : archive;
+    }
+
+    /**
+     * 资源包被删除后释放缓存, 已取得的数据仍可访问
+     *
+     * @param path 资源包路径
+     */
+    public static void release(String path) {
+        if (path != null) mArchives.remove(path);
+    }
+
+    /**
+     * 是否资源包内的资源路径
+     */
+    public static boolean isEntryPath(String path) {
+        return path != null && path.contains(ENTRY_SEPARATOR);
+    }
+
+    /**
+     * 资源包内的资源路径
+     *
+     * @param archivePath 资源包路径
+     * @param name        条目名称
+     */
+    public static String getEntryPath(String archivePath, String name) {
+        return archivePath + ENTRY_SEPARATOR + name;
+    }
+
+    /**
+     * 按资源包内的资源路径读取数据
+     *
+     * @param entryPath 资源路径
+     * @return 数据 或 空
+     */
+    public static byte[] readEntry(String entryPath) {
+        int index = entryPath != null ? entryPath.indexOf(ENTRY_SEPARATOR) : -1;
+        if (index < 0) return null;
+
+        AssetArchive archive = get(entryPath.substring(0, index));
+        return archive != null ? archive.read(entryPath.substring(index + ENTRY_SEPARATOR.length())) : null;
+    }
+
+    /**
+     * 按资源包内的资源路径打开输入流
+     *
+     * @param entryPath 资源路径
+     * @return 输入流 或 空
+     */
+    public static InputStream openEntry(String entryPath) {
+        int index = entryPath != null ? entryPath.indexOf(ENTRY_SEPARATOR) : -1;
+        if (index < 0) return null;
+
+        AssetArchive archive = get(entryPath.substring(0, index));
+        return archive != null ? archive.openStream(entryPath.substring(index + ENTRY_SEPARATOR.length())) : null;
+    }
+
+    /**
+     * 按资源包内的资源路径获取只读数据
+     *
+     * @param entryPath 资源路径
+     * @return 只读数据 或 空
+     */
+    public static ByteBuffer getEntryBuffer(String entryPath) {
+        int index = entryPath != null ? entryPath.indexOf(ENTRY_SEPARATOR) : -1;
+        if (index < 0) return null;
+
+        AssetArchive archive = get(entryPath.substring(0, index));
+        return archive != null ? archive.getBuffer(entryPath.substring(index + ENTRY_SEPARATOR.length())) : null;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * 文件条目名称
+     */
+    public Set<String> getFileNames() {
+        return mEntries.keySet();
+    }
+
+    /**
+     * 目录名称, 包括文件的各级上级目录
+     */
+    public Set<String> getDirectoryNames() {
+        return mDirectories;
+    }
+
+    /**
+     * 是否包含文件条目
+     */
+    public boolean isFile(String name) {
+        return name != null && mEntries.containsKey(name);
+    }
+
+    /**
+     * 是否包含目录
+     */
+    public boolean isDirectory(String name) {
+        return name != null && mDirectories.contains(name);
+    }
+
+    /**
+     * 获取条目的只读数据. 未压缩的条目为映射切片, 不复制; 压缩的条目解压到堆内存
+     *
+     * @param name 条目名称
+     * @return 只读数据 或 空
+     */
+    public ByteBuffer getBuffer(String name) {
+        Entry entry = name != null ? mEntries.get(name) : null;
+        if (entry == null) return null;
+
+        ByteBuffer data = slice(entry);
+        if (data == null) return null;
+        if (entry.method == METHOD_STORED) return data;
+
+        byte[] bytes = inflate(entry, data);
+        return bytes != null ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * 读取条目数据
+     *
+     * @param name 条目名称
+     * @return 数据 或 空
+     */
+    public byte[] read(String name) {
+        Entry entry = name != null ? mEntries.get(name) : null;
+        if (entry == null) return null;
+
+        ByteBuffer data = slice(entry);
+        if (data == null) return null;
+        if (entry.method == METHOD_DEFLATED) return inflate(entry, data);
+
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 打开条目输入流, 压缩的条目边读边解压
+     *
+     * @param name 条目名称
+     * @return 输入流 或 空
+     */
+    public InputStream openStream(String name) {
+        Entry entry = name != null ? mEntries.get(name) : null;
+        if (entry == null) return null;
+
+        ByteBuffer data = slice(entry);
+        if (data == null) return null;
+        if (entry.method == METHOD_STORED) return new ByteBufferInputStream(data);
+
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(new ByteBufferInputStream(data), inflater) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * 校验全部条目的 CRC-32 及大小, 在映射上分块读取, 压缩的条目边解压边计算, 不保存完整数据.
+     * 安装时调用一次, 读取时不再校验
+     *
+     * @return 是否全部一致
+     */
+    public boolean verify() {
+        byte[] input = new byte[VERIFY_BUFFER_SIZE];
+        byte[] output = new byte[VERIFY_BUFFER_SIZE];
+        CRC32 crc = new CRC32();
+        Inflater inflater = new Inflater(true);
+        try {
+            for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                Entry entry = item.getValue();
+                ByteBuffer data = slice(entry);
+                if (data == null) return false;
+
+                crc.reset();
+                long size = 0;
+                if (entry.method == METHOD_STORED) {
+                    while (data.hasRemaining()) {
+                        int length = Math.min(input.length, data.remaining());
+                        data.get(input, 0, length);
+                        crc.update(input, 0, length);
+                        size += length;
+                    }
+                } else {
+                    inflater.reset();
+                    boolean isPadded = false;
+                    while (!inflater.finished()) {
+                        if (inflater.needsInput()) {
+                            if (data.hasRemaining()) {
+                                int length = Math.min(input.length, data.remaining());
+                                data.get(input, 0, length);
+                                inflater.setInput(input, 0, length);
+                            } else if (!isPadded) {
+                                // 补一个空字节, 无头模式的 Inflater 可能需要额外输入才能结束
+                                input[0] = 0;
+                                inflater.setInput(input, 0, 1);
+                                isPadded = true;
+                            } else {
+                                break;
+                            }
+                        }
+                        int length = inflater.inflate(output);
+                        if (length == 0 && inflater.needsDictionary()) break;
+                        crc.update(output, 0, length);
+                        // 解压数据超过记录的大小
+                        if (inflater.getBytesWritten() > entry.size) return false;
+                    }
+                    if (!inflater.finished()) return false;
+                    size = inflater.getBytesWritten();
+                }
+                if (size != entry.size || crc.getValue() != entry.crc) return false;
+            }
+            return true;
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+        } finally {
+            inflater.end();
+        }
+        return false;
+    }
+
+    /**
+     * 读取中央目录建立索引
+     */
+    private static AssetArchive index(String path, ByteBuffer buffer) {
+        HashMap<String, Entry> entries = new HashMap<>();
+        HashSet<String> directories = new HashSet<>();
+        int end = findEndOfCentralDir(buffer);
+        if (end < 0) return null;
+
+        int count = buffer.getShort(end + 10) & 0xffff;
+        long offset = buffer.getInt(end + 16) & 0xffffffffL;
+        // 不支持 ZIP64
+        if (offset >= end) return null;
+
+        int position = (int) offset;
+        for (int i = 0; i < count; i++) {
+            // 中央目录记录须在结束记录之前
+            if (position + CENTRAL_DIR_HEADER_SIZE > end || buffer.getInt(position) != CENTRAL_DIR_SIGNATURE) return null;
+
+            int flags = buffer.getShort(position + 8) & 0xffff;
+            int method = buffer.getShort(position + 10) & 0xffff;
+            long crc = buffer.getInt(position + 16) & 0xffffffffL;
+            long compressedSize = buffer.getInt(position + 20) & 0xffffffffL;
+            long size = buffer.getInt(position + 24) & 0xffffffffL;
+            int nameLength = buffer.getShort(position + 28) & 0xffff;
+            int extraLength = buffer.getShort(position + 30) & 0xffff;
+            int commentLength = buffer.getShort(position + 32) & 0xffff;
+            long headerOffset = buffer.getInt(position + 42) & 0xffffffffL;
+            int nextPosition = position + CENTRAL_DIR_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (nextPosition > end) return null;
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = buffer.duplicate();
+            nameBuffer.position(position + CENTRAL_DIR_HEADER_SIZE);
+            nameBuffer.get(nameBytes);
+            String name = new String(nameBytes, CHARSET_UTF8);
+            position = nextPosition;
+
+            // 不允许绝对路径及 .. , 与解压时的检查一致
+            if (!isSafeName(name)) return null;
+            if (name.endsWith("/")) {
+                addDirectories(name.substring(0, name.length() - 1), directories);
+                continue;
+            }
+            // 不支持加密条目及其他压缩方式
+            if ((flags & 1) != 0 || (method != METHOD_STORED && method != METHOD_DEFLATED)) return null;
+            if (headerOffset + LOCAL_HEADER_SIZE > offset || compressedSize > offset || size > Integer.MAX_VALUE)
+                return null;
+
+            entries.put(name, new Entry(method, crc, compressedSize, size, headerOffset));
+            int index = name.lastIndexOf('/');
+            if (index > 0) addDirectories(name.substring(0, index), directories);
+        }
+        return new AssetArchive(path, buffer, Collections.unmodifiableMap(entries), Collections.unmodifiableSet(directories));
+    }
+
+    /**
+     * 记录目录及其各级上级目录
+     */
+    private static void addDirectories(String name, Set<String> directories) {
+        while (name.length() > 0 && directories.add(name)) {
+            int index = name.lastIndexOf('/');
+            if (index <= 0) break;
+            name = name.substring(0, index);
+        }
+    }
+
+    private static boolean isSafeName(String name) {
+        if (name.length() == 0 || name.startsWith("/") || name.startsWith("\\")) return false;
+        for (String part : name.split("[/\\\\]")) {
+            if ("..".equals(part)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 从文件末尾向前查找中央目录结束记录, 注释最长 65535 字节
+     */
+    private static int findEndOfCentralDir(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        int min = Math.max(0, limit - END_OF_CENTRAL_DIR_SIZE - 0xffff);
+        for (int position = limit - END_OF_CENTRAL_DIR_SIZE; position >= min; position--) {
+            if (buffer.getInt(position) == END_OF_CENTRAL_DIR_SIGNATURE) return position;
+        }
+        return -1;
+    }
+
+    /**
+     * 条目数据的只读切片, 首次访问时读取本地文件头确定数据位置
+     */
+    private ByteBuffer slice(Entry entry) {
+        long dataOffset = entry.dataOffset;
+        if (dataOffset < 0) {
+            int header = (int) entry.headerOffset;
+            if (mBuffer.getInt(header) != LOCAL_HEADER_SIGNATURE) return null;
+            int nameLength = mBuffer.getShort(header + 26) & 0xffff;
+            int extraLength = mBuffer.getShort(header + 28) & 0xffff;
+            dataOffset = header + LOCAL_HEADER_SIZE + nameLength + extraLength;
+            if (dataOffset + entry.compressedSize > mBuffer.limit()) return null;
+            entry.dataOffset = dataOffset;
+        }
+
+        ByteBuffer data = mBuffer.duplicate();
+        data.position((int) dataOffset);
+        data.limit((int) (dataOffset + entry.compressedSize));
+        return data.slice().asReadOnlyBuffer();
+    }
+
+    private static byte[] inflate(Entry entry, ByteBuffer data) {
+        // 多一个空字节, 无头模式的 Inflater 可能需要额外输入才能结束
+        byte[] input = new byte[data.remaining() + 1];
+        data.get(input, 0, input.length - 1);
+
+        byte[] output = new byte[(int) entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(input);
+            int offset = 0;
+            while (offset < output.length && !inflater.finished()) {
+                int length = inflater.inflate(output, offset, output.length - offset);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                offset += length;
+            }
+            return offset == output.length ? output : null;
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+        } finally {
+            inflater.end();
+        }
+        return null;
+    }
+
+    /**
+     * 文件条目
+     */
+    private static class Entry {
+        private final int method;
+        // 解压后数据的 CRC-32
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long headerOffset;
+        // 数据位置, 首次访问时确定
+        private volatile long dataOffset = -1;
+
+        Entry(int method, long crc, long compressedSize, long size, long headerOffset) {
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+    }
+
+    /**
+     * 读取 ByteBuffer 的输入流, 不复制数据
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mData;
+
+        ByteBufferInputStream(ByteBuffer data) {
+            mData = data;
+        }
+
+        @Override
+        public int read() {
+            return mData.hasRemaining() ? mData.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) return 0;
+            if (!mData.hasRemaining()) return -1;
+
+            length = Math.min(length, mData.remaining());
+            mData.get(buffer, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return mData.remaining();
+        }
+
+        @Override
+        public long skip(long n) {
+            int length = (int) Math.max(0, Math.min(n, mData.remaining()));
+            mData.position(mData.position() + length);
+            return length;
+        }
+    }
+}
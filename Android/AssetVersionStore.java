@@ -0,0 +1,328 @@
+package com.autohome.ahkit.assets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 资源版本存储, 单文件追加日志.
+ * 记录格式: [键长度 int][键 UTF-8][值长度 int][值 UTF-8], 值长度为 -1 表示删除.
+ * 加载时内存映射读取, 末尾不完整的记录(写入中断)被忽略; 失效记录过多时压缩重写并原子替换.
+ */
+public class AssetVersionStore {
+    // 字符串编码
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+    // 删除记录的值长度
+    private static final int DELETED_LENGTH = -1;
+    // 日志超过此大小且失效记录占多数时压缩
+    private static final long COMPACT_MIN_SIZE = 16 * 1024;
+
+    // 存储文件
+    private final File mFile;
+    // 版本信息
+    private final HashMap<String, String> mVersions = new HashMap<>();
+    // 是否已加载
+    private boolean isLoaded = false;
+    // 日志文件大小
+    private long mLogSize = 0;
+    // 有效记录大小
+    private long mLiveSize = 0;
+    // 批量写入嵌套层数, 大于 0 时记录暂存在内存中
+    private int mBatchDepth = 0;
+    // 批量写入中暂存的记录
+    private final ByteArrayOutputStream mBatchRecords = new ByteArrayOutputStream();
+
+    public AssetVersionStore(String path) {
+        mFile = new File(path);
+    }
+
+    /**
+     * 读取版本
+     *
+     * @param key 资源包名
+     * @return 版本 或 空
+     */
+    public synchronized String get(String key) {
+        load();
+        return mVersions.get(key);
+    }
+
+    /**
+     * 保存版本
+     *
+     * @param key     资源包名
+     * @param version 版本
+     * @return 是否成功
+     */
+    public synchronized boolean put(String key, String version) {
+        if (key == null || version == null) return false;
+
+        load();
+        if (version.equals(mVersions.get(key))) return true;
+        if (!append(key, version)) return false;
+
+        String old = mVersions.put(key, version);
+        if (old != null) mLiveSize -= recordSize(key, old);
+        mLiveSize += recordSize(key, version);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * 批量保存版本, 只写一次文件
+     *
+     * @param versions 资源包名与版本
+     * @return 是否成功
+     */
+    public synchronized boolean putAll(Map<String, String> versions) {
+        load();
+        for (Map.Entry<String, String> entry : versions.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) mVersions.put(entry.getKey(), entry.getValue());
+        }
+        return rewrite();
+    }
+
+    /**
+     * 删除版本
+     *
+     * @param key 资源包名
+     */
+    public synchronized void remove(String key) {
+        if (key == null) return;
+
+        load();
+        String old = mVersions.get(key);
+        if (old == null) return;
+        if (!append(key, null)) return;
+
+        mVersions.remove(key);
+        mLiveSize -= recordSize(key, old);
+        compactIfNeeded();
+    }
+
+    /**
+     * 开始批量写入, 之后的保存及删除只更新内存, 到 commitBatch 时一次写入并同步.
+     * 可嵌套, 最外层提交时写入
+     */
+    public synchronized void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * 提交批量写入
+     *
+     * @return 是否成功, 失败时内存中的版本与文件不一致, 下次写入时重写
+     */
+    public synchronized boolean commitBatch() {
+        if (mBatchDepth == 0) return true;
+        if (--mBatchDepth > 0) return true;
+        if (mBatchRecords.size() == 0) return true;
+
+        byte[] records = mBatchRecords.toByteArray();
+        mBatchRecords.reset();
+        // 追加失败时重写全部有效记录
+        boolean isSuccess = write(records) || rewrite();
+        if (isSuccess) compactIfNeeded();
+        return isSuccess;
+    }
+
+    /**
+     * 存储文件被外部删除后(如清空存储目录)重置内存状态
+     */
+    public synchronized void reset() {
+        mVersions.clear();
+        mBatchRecords.reset();
+        mLogSize = 0;
+        mLiveSize = 0;
+        isLoaded = false;
+    }
+
+    /**
+     * 内存映射读取日志
+     */
+    private void load() {
+        if (isLoaded) return;
+        isLoaded = true;
+
+        mVersions.clear();
+        mLogSize = 0;
+        mLiveSize = 0;
+        if (!mFile.isFile() || mFile.length() == 0) return;
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(mFile, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long validSize = 0;
+            while (true) {
+                String key = readString(buffer);
+                if (key == null) break;
+                if (buffer.remaining() < 4) break;
+                int valueLength = buffer.getInt();
+                String value = null;
+                if (valueLength != DELETED_LENGTH) {
+                    if (valueLength < 0 || valueLength > buffer.remaining()) break;
+                    byte[] bytes = new byte[valueLength];
+                    buffer.get(bytes);
+                    value = new String(bytes, CHARSET_UTF8);
+                }
+                if (value == null) mVersions.remove(key);
+                else mVersions.put(key, value);
+                validSize = buffer.position();
+            }
+            mLogSize = validSize;
+            for (Map.Entry<String, String> entry : mVersions.entrySet()) {
+                mLiveSize += recordSize(entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // 末尾有不完整记录, 截断后再追加
+        if (mLogSize < mFile.length()) rewrite();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) return null;
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, CHARSET_UTF8);
+    }
+
+    /**
+     * 追加一条记录, 单次写入; 批量写入中只暂存
+     *
+     * @param key   键
+     * @param value 值, 为空表示删除
+     */
+    private boolean append(String key, String value) {
+        byte[] record = encode(key, value);
+        if (mBatchDepth > 0) {
+            mBatchRecords.write(record, 0, record.length);
+            return true;
+        }
+        return write(record);
+    }
+
+    /**
+     * 追加记录到文件并同步
+     *
+     * @param records 已编码的记录
+     */
+    private boolean write(byte[] records) {
+        File dir = mFile.getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+        // 文件被外部删除, 先写入已有的全部记录
+        if (mLogSize > 0 && !mFile.isFile() && !rewrite()) return false;
+
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(mFile, true);
+            fos.write(records);
+            fos.getFD().sync();
+            mLogSize += records.length;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return false;
+    }
+
+    private void compactIfNeeded() {
+        if (mBatchDepth == 0 && mLogSize > COMPACT_MIN_SIZE && mLogSize > mLiveSize * 2) rewrite();
+    }
+
+    /**
+     * 写入全部有效记录到临时文件后原子替换
+     */
+    private boolean rewrite() {
+        File dir = mFile.getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fos = null;
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            for (Map.Entry<String, String> entry : mVersions.entrySet()) {
+                bos.write(encode(entry.getKey(), entry.getValue()));
+            }
+            byte[] data = bos.toByteArray();
+            fos = new FileOutputStream(tmpFile);
+            fos.write(data);
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+            if (!tmpFile.renameTo(mFile)) return false;
+            // 暂存的记录已包含在内
+            mBatchRecords.reset();
+            mLogSize = data.length;
+            mLiveSize = data.length;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            tmpFile.delete();
+        }
+        return false;
+    }
+
+    private static byte[] encode(String key, String value) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        try {
+            byte[] keyBytes = key.getBytes(CHARSET_UTF8);
+            dos.writeInt(keyBytes.length);
+            dos.write(keyBytes);
+            if (value == null) {
+                dos.writeInt(DELETED_LENGTH);
+            } else {
+                byte[] valueBytes = value.getBytes(CHARSET_UTF8);
+                dos.writeInt(valueBytes.length);
+                dos.write(valueBytes);
+            }
+        } catch (IOException e) {
+            // 内存流不会抛出
+            e.printStackTrace();
+        }
+        return bos.toByteArray();
+    }
+
+    private static long recordSize(String key, String value) {
+        return 8 + key.getBytes(CHARSET_UTF8).length + value.getBytes(CHARSET_UTF8).length;
+    }
+}
@@ -3,20 +3,41 @@ package com.autohome.ahkit.assets;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.LruCache;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -29,14 +50,53 @@ public class AssetsManager {
     private static final String ASSET_MAIN_CONF_NAME = "main.cnf";
     // 资源配置信息根节点名称
     private static final String ASSET_ROOT_NODE_NAME = "assets";
-    // 资源版本保存目录名称
+    // 资源版本保存目录名称(旧版本), 也是版本文件后缀
     private static final String ASSET_VERSION_NAME = ".ver";
+    // 资源版本存储文件名称
+    private static final String ASSET_VERSION_STORE_NAME = ".versions";
+    // 资源包版本目录的根目录名称
+    private static final String ASSET_GENERATION_DIR_NAME = ".generations";
+    // 资源包当前版本目录在版本存储中的键后缀
+    private static final String ASSET_GENERATION_SUFFIX = ".gen";
+    // 安装过程中的暂存文件及目录前缀, 启动时清除上次中断遗留的
+    private static final String ASSET_STAGING_PREFIX = "tmp_";
+    // 已安装资源包内容摘要在版本存储中的键后缀
+    private static final String ASSET_SHA256_SUFFIX = ".sha256";
+    // 资源包摘要算法
+    private static final String ASSET_DIGEST_ALGORITHM = "SHA-256";
+    // 补丁中待删除文件列表名称
+    private static final String ASSET_PATCH_DELETED_NAME = ".deleted";
+    // 补丁中单文件二进制补丁的后缀, 去掉后缀为对应的资源文件
+    private static final String ASSET_PATCH_DIFF_SUFFIX = ".bsdiff";
+    // 主配置文件 ETag 保存名称
+    private static final String ASSET_MAIN_CONF_ETAG_NAME = ASSET_MAIN_CONF_NAME + ".etag";
+    // 主配置文件 Last-Modified 保存名称
+    private static final String ASSET_MAIN_CONF_LAST_MODIFIED_NAME = ASSET_MAIN_CONF_NAME + ".modified";
     // 系统的版本号
     private static final String APP_ASSET_VERSION_NAME = "AppAssetVersionName";
     // 只获取一次配置目录文件信息
     private static boolean isGetFilesSize = true;
-    // 缓存读取的配置文件
-    private static HashMap<String, String> mConfigValues;
+    // 配置缓存默认容量(字节)
+    private static final int CONFIG_CACHE_MAX_SIZE = 2 * 1024 * 1024;
+    // 缓存读取的配置文件, 按字节数限制容量, 最近最少使用的先淘汰
+    private static final LruCache<String, String> mConfigValues = new LruCache<String, String>(CONFIG_CACHE_MAX_SIZE) {
+        @Override
+        protected int sizeOf(String key, String value) {
+            // Java 字符串每个字符占 2 字节
+            return (key.length() + value.length()) * 2;
+        }
+    };
+    // 解析后的配置缓存, 与配置字符串缓存一同失效
+    private static final LruCache<String, ParsedConfig> mConfigJsons = new LruCache<String, ParsedConfig>(CONFIG_CACHE_MAX_SIZE) {
+        @Override
+        protected int sizeOf(String key, ParsedConfig value) {
+            return value.size;
+        }
+    };
+    // 不存在的配置, 值为记录时间, 有效期内不再读取文件
+    private static final LruCache<String, Long> mMissingConfigs = new LruCache<>(512);
+    // 不存在的配置的缓存有效期(毫秒)
+    private static volatile long mMissingConfigTtl = 60 * 1000;
     // 更新读取主配置文件是否成功（不包含读取后的更新资源）
     private boolean isUpdateMainConfigLoadComplate = false;
 
@@ -49,39 +109,255 @@ public class AssetsManager {
     // 内置资源目录
     private String mBundleDir;
 
-    // 资源信息列表
-    private List<AssetInfoModel> mAssetInfoList;
+    // 资源清单, 每次解析主配置文件后整体替换
+    private volatile AssetManifest mAssetManifest;
+    // 内置资源目录索引, 相对内置资源目录的路径
+    private volatile Set<String> mBundleFiles;
+    // 内置资源目录的有序索引, 按前缀查找使用, 与 mBundleFiles 一同建立
+    private volatile SortedSet<String> mSortedBundleFiles;
+    private final Object mBundleFilesLock = new Object();
+    // 已安装资源快照, 键为资源名称, 值为资源路径. 为空时直接访问文件系统
+    private volatile Map<String, String> mInstalledAssets;
+    // 安装锁, 资源发布、快照更新及版本目录回收互斥, 读取资源不加锁
+    private final Object mInstallLock = new Object();
+    // 尚未解压的内置资源包, 延迟解压时使用
+    private final ConcurrentHashMap<String, PendingBundleZip> mPendingBundleZips = new ConcurrentHashMap<>();
+    // 资源版本存储
+    private AssetVersionStore mVersionStore;
 
     // 资源下载
     private NetworkManager mDownloadManager;
+    // 是否边下载边解压, 不保存压缩包
+    private boolean isStreamInstallEnabled = false;
+    // 是否保留压缩包作为资源存储, 不解压, 通过中央目录索引直接读取
+    private boolean isArchiveInstallEnabled = false;
+    // 内置资源是否延迟解压, 首次使用时解压所属资源包, 其余在后台解压
+    private boolean isLazyBundleInstallEnabled = false;
+    // 正在下载安装的资源包
+    private Set<String> mUpdatingZips = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // 主配置文件校验标识锁, 待保存的校验标识及资源更新结果由该锁保护
+    private final Object mMainConfigValidatorLock = new Object();
+    // 更新后的主配置文件的 ETag 及 Last-Modified, 其资源全部安装成功后保存
+    private String mPendingMainConfigEtag;
+    private String mPendingMainConfigLastModified;
+    // 是否有待保存的主配置文件校验标识
+    private boolean isMainConfigValidatorPending = false;
+    // 本次资源更新是否有失败
+    private boolean isAssetUpdateFailed = false;
+    // 调用方指定的资源下载优先级, 优先于主配置文件中的设置
+    private ConcurrentHashMap<String, HttpRequest.Priority> mAssetPriorities = new ConcurrentHashMap<>();
+
+    // 解码后的图片缓存, 默认占用最大内存的 1/8
+    private BitmapCache mBitmapCache = new BitmapCache((int) (Runtime.getRuntime().maxMemory() / 8));
+
+    // 主配置文件及内置资源加载完成
+    private final CountDownLatch mReadyLatch = new CountDownLatch(1);
+    // 文件读取及解码线程, 异步接口和后台初始化使用, 空闲时回收
+    private final ThreadPoolExecutor mIoExecutor = createIoExecutor();
 
     private AssetsManagerListener mAssetsListener;
 
     private static AssetsManager mAssetsManager = null;
 
     public AssetsManager(Context context, String assetDirUrl, String storagePath, String bundleDir) {
-        init(context, assetDirUrl, storagePath, bundleDir, null);
+        init(context, assetDirUrl, storagePath, bundleDir, null, false, false);
     }
 
     public AssetsManager(Context context, String assetDirUrl, String storagePath, String bundleDir, AssetsManagerListener listener) {
-        init(context, assetDirUrl, storagePath, bundleDir, listener);
+        init(context, assetDirUrl, storagePath, bundleDir, listener, false, false);
+    }
+
+    /**
+     * @param isAsyncInit 是否在后台线程加载主配置文件及内置资源, 构造函数立即返回.
+     *                    加载完成前同步接口不等待也不加锁: 快照尚未建立, 按已解析的清单查找资源包的当前版本目录,
+     *                    清单尚未解析时只查找存储目录, getConfig 等找不到时读取内置资源, 结果可能是旧版本或为空.
+     *                    异步接口等待加载完成后执行, 同步接口需要加载后的结果时先调用 awaitReady
+     */
+    public AssetsManager(Context context, String assetDirUrl, String storagePath, String bundleDir, AssetsManagerListener listener, boolean isAsyncInit) {
+        init(context, assetDirUrl, storagePath, bundleDir, listener, isAsyncInit, false);
     }
 
-    private void init(Context context, String assetDirUrl, String storagePath, String bundleDir, AssetsManagerListener listener) {
+    /**
+     * @param isAsyncInit         是否在后台线程加载主配置文件及内置资源, 同上
+     * @param isLazyBundleInstall 内置资源是否延迟解压, 见 setLazyBundleInstallEnabled
+     */
+    public AssetsManager(Context context, String assetDirUrl, String storagePath, String bundleDir, AssetsManagerListener listener, boolean isAsyncInit, boolean isLazyBundleInstall) {
+        init(context, assetDirUrl, storagePath, bundleDir, listener, isAsyncInit, isLazyBundleInstall);
+    }
+
+    private void init(Context context, String assetDirUrl, String storagePath, String bundleDir, AssetsManagerListener listener, boolean isAsyncInit, boolean isLazyBundleInstall) {
         mContext = context;
         mAssetDirUrl = assetDirUrl;
         mStoragePath = storagePath;
         mBundleDir = bundleDir;
         mAssetsListener = listener;
+        isLazyBundleInstallEnabled = isLazyBundleInstall;
 
         // 初始化下载管理类
         mDownloadManager = new NetworkManager();
-        mDownloadManager.setMaxThreadCount(1);
+        // 两个下载线程, 大资源包下载时高优先级资源不必等待
+        mDownloadManager.setMaxThreadCount(2);
+
+        // 初始化资源版本存储
+        if (!TextUtils.isEmpty(mStoragePath)) {
+            mVersionStore = new AssetVersionStore(mStoragePath + "/" + ASSET_VERSION_STORE_NAME);
+        }
+
+        Runnable initTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mVersionStore != null) migrateAssetVersions();
+                    // 清除上次中断遗留的暂存文件
+                    deleteStagingFiles();
+                    // 加载主配置文件
+                    loadMainConfig();
+                    // 回收上次运行被替换及不在清单中的版本目录
+                    reclaimGenerations();
+                } finally {
+                    mReadyLatch.countDown();
+                }
+                // 更新主配置文件
+                updateMainConfig();
+            }
+        };
+        if (isAsyncInit) mIoExecutor.execute(initTask);
+        else initTask.run();
+    }
+
+    /**
+     * 主配置文件及内置资源是否加载完成
+     */
+    public boolean isReady() {
+        return mReadyLatch.getCount() == 0;
+    }
+
+    /**
+     * 等待加载完成
+     *
+     * @param timeoutMillis 超时时间(毫秒)
+     * @return 是否加载完成
+     */
+    public boolean awaitReady(long timeoutMillis) {
+        try {
+            return mReadyLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 异步获取配置信息
+     *
+     * @param name             文件名
+     * @param callbackExecutor 回调线程, 为空时在 I/O 线程回调
+     * @param callback         回调
+     */
+    public void getConfigAsync(final String name, Executor callbackExecutor, AssetCallback<String> callback) {
+        runAsync(new Callable<String>() {
+            @Override
+            public String call() {
+                return getConfig(name);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * 异步获取解析后的配置
+     *
+     * @param name             文件名
+     * @param callbackExecutor 回调线程, 为空时在 I/O 线程回调
+     * @param callback         回调
+     */
+    public void getConfigJsonAsync(final String name, Executor callbackExecutor, AssetCallback<JSONObject> callback) {
+        runAsync(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() {
+                return getConfigJson(name);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * 异步获取资源路径
+     *
+     * @param name             文件名
+     * @param callbackExecutor 回调线程, 为空时在 I/O 线程回调
+     * @param callback         回调
+     */
+    public void getAssetPathAsync(final String name, Executor callbackExecutor, AssetCallback<String> callback) {
+        runAsync(new Callable<String>() {
+            @Override
+            public String call() {
+                return getAssetPath(name);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * 异步读取图片文件
+     *
+     * @param name             资源名称
+     * @param reqWidth         目标宽度, 小于等于 0 时不采样
+     * @param reqHeight        目标高度, 小于等于 0 时不采样
+     * @param callbackExecutor 回调线程, 为空时在 I/O 线程回调
+     * @param callback         回调
+     */
+    public void getAssetBitmapAsync(final String name, final int reqWidth, final int reqHeight, Executor callbackExecutor, AssetCallback<Bitmap> callback) {
+        runAsync(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return getAssetBitmap(name, reqWidth, reqHeight);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * 在 I/O 线程中等待加载完成后执行, 结果在指定线程回调
+     */
+    private <T> void runAsync(final Callable<T> task, final Executor callbackExecutor, final AssetCallback<T> callback) {
+        mIoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                try {
+                    mReadyLatch.await();
+                    result = task.call();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                if (callback == null) return;
+
+                final T finalResult = result;
+                Runnable deliver = new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(finalResult);
+                    }
+                };
+                if (callbackExecutor != null) callbackExecutor.execute(deliver);
+                else deliver.run();
+            }
+        });
+    }
 
-        // 加载主配置文件
-        loadMainConfig();
-        // 更新主配置文件
-        updateMainConfig();
+    private static ThreadPoolExecutor createIoExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCounter = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AssetsIO-" + mCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
@@ -107,6 +383,84 @@ public class AssetsManager {
         return mStoragePath;
     }
 
+    public boolean isStreamInstallEnabled() {
+        return isStreamInstallEnabled;
+    }
+
+    /**
+     * 设置是否边下载边解压. 开启后不保存压缩包, 也不支持断点续传, 对之后发起的资源更新生效
+     */
+    public void setStreamInstallEnabled(boolean enable) {
+        isStreamInstallEnabled = enable;
+    }
+
+    public boolean isArchiveInstallEnabled() {
+        return isArchiveInstallEnabled;
+    }
+
+    /**
+     * 设置是否保留压缩包作为资源存储, 对之后发起的资源更新生效.
+     * 开启后下载的资源包不解压, 安装只需一次重命名; 资源包内资源的路径为 资源包路径!/名称,
+     * 通过 getConfig、getConfigReader、getAssetBuffer、getAssetBitmap 读取, 不能作为文件直接打开.
+     * 优先于边下载边解压
+     */
+    public void setArchiveInstallEnabled(boolean enable) {
+        isArchiveInstallEnabled = enable;
+    }
+
+    public boolean isLazyBundleInstallEnabled() {
+        return isLazyBundleInstallEnabled;
+    }
+
+    /**
+     * 设置内置资源是否延迟解压, 对之后加载主配置文件(主配置文件更新后)生效; 启动时的加载使用构造函数参数.
+     * 开启后首次启动或应用升级时不在加载过程中解压内置资源包, 资源首次通过 getAssetPath 等同步接口使用时,
+     * 在调用线程中解压所属资源包后返回, 期间阻塞; 其余资源包由低优先级后台任务解压
+     */
+    public void setLazyBundleInstallEnabled(boolean enable) {
+        isLazyBundleInstallEnabled = enable;
+    }
+
+    /**
+     * 设置资源下载优先级, 优先于主配置文件中的 priority
+     *
+     * @param name     资源名称
+     * @param priority 优先级, 为空时清除
+     */
+    public void setAssetPriority(String name, HttpRequest.Priority priority) {
+        if (TextUtils.isEmpty(name)) return;
+
+        if (priority == null) mAssetPriorities.remove(name);
+        else mAssetPriorities.put(name, priority);
+    }
+
+    /**
+     * 设置下载线程数
+     *
+     * @param count 线程数
+     */
+    public void setMaxDownloadThreadCount(int count) {
+        mDownloadManager.setMaxThreadCount(count);
+    }
+
+    /**
+     * 设置下载使用的传输层, 如可选的 okhttp/OkHttpTransport
+     *
+     * @param transport 传输层, 为空时使用系统 HttpURLConnection
+     */
+    public void setHttpTransport(HttpTransport transport) {
+        mDownloadManager.setTransport(transport);
+    }
+
+    /**
+     * 设置后台资源更新(优先级低于 HIGH)的总带宽, 前台有网络请求时可调低以让出带宽
+     *
+     * @param bytesPerSecond 每秒字节数, 小于等于 0 时不限制
+     */
+    public void setBackgroundBandwidthLimit(long bytesPerSecond) {
+        mDownloadManager.setBackgroundBandwidthLimit(bytesPerSecond);
+    }
+
     /**
      * 获取配置信息
      *
@@ -114,59 +468,208 @@ public class AssetsManager {
      * @return 配置信息 或 空
      */
     public String getConfig(String name) {
-        if (mConfigValues != null) {
-            String value = mConfigValues.get(name);
-            if (!TextUtils.isEmpty(value)) {
-                return value;
-            }
-        }
         boolean isGetConfigSuccess = false;
         if (TextUtils.isEmpty(name)) {
             return null;
         }
+        // 加载完成前可能读到内置资源, 结果不缓存
+        boolean isCacheable = isReady();
+        String value = mConfigValues.get(name);
+        if (value != null) {
+            return value;
+        }
+        // 有效期内已确认不存在, 不再读取文件
+        Long missingTime = mMissingConfigs.get(name);
+        if (missingTime != null) {
+            if (System.currentTimeMillis() - missingTime < mMissingConfigTtl) return null;
+            mMissingConfigs.remove(name);
+        }
         String json = null;
-        synchronized (this) {
-            String assetPath = getAssetPath(name, null);
-            if (!TextUtils.isEmpty(assetPath)) {
-
-                byte[] data = FileUtils.read(assetPath);
-                if (data != null) {
-                    isGetConfigSuccess = true;
-                    json = new String(data, CHARSET_UTF8);
-                }
+        // 资源版本目录发布后不再修改, 读取无需加锁
+        String assetPath = getAssetPath(name, null);
+        if (!TextUtils.isEmpty(assetPath)) {
+
+            byte[] data = readAsset(assetPath);
+            if (data != null) {
+                isGetConfigSuccess = true;
+                json = new String(data, CHARSET_UTF8);
             }
-            // 临时处理空指针问题
-            if (json == null && isFileInAssets(name)) {
-                if (isGetFilesSize) {
-                    isGetFilesSize = false;
-                    File[] fileTemps = new File(mStoragePath).listFiles();
-                }
-                if (isFileInAssets(name)) {
-                    InputStream in = null;
-                    try {
-                        in = mContext.getAssets().open(mBundleDir + "/" + name);
-                        //获取文件的字节数
-                        int lenght = in.available();
-                        //创建byte数组
-                        byte[] buffer = new byte[lenght];
-                        in.read(buffer);
-                        json = new String(buffer, CHARSET_UTF8);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        }
+        // 临时处理空指针问题
+        if (json == null && isFileInAssets(name)) {
+            if (isGetFilesSize) {
+                isGetFilesSize = false;
+                File[] fileTemps = new File(mStoragePath).listFiles();
+            }
+            if (isFileInAssets(name)) {
+                try {
+                    // 读到流结束, available() 对压缩存储的资源不可靠
+                    byte[] buffer = FileUtils.read(mContext.getAssets().open(mBundleDir + "/" + name));
+                    if (buffer != null) json = new String(buffer, CHARSET_UTF8);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
         }
         if (mAssetsListener != null) {
             mAssetsListener.onGetConfigStatus(isGetConfigSuccess);
         }
-        if (mConfigValues == null) {
-            mConfigValues = new HashMap<>();
+        if (!isCacheable) {
+            return json;
+        }
+        if (json != null) {
+            mConfigValues.put(name, json);
+        } else if (mMissingConfigTtl > 0) {
+            mMissingConfigs.put(name, System.currentTimeMillis());
         }
-        mConfigValues.put(name, json);
         return json;
     }
 
+    /**
+     * 获取解析后的配置, 解析结果缓存. 返回的对象为共享缓存, 调用方不要修改
+     *
+     * @param name 文件名
+     * @return 配置 或 空(不存在或不是 JSON 对象)
+     */
+    public JSONObject getConfigJson(String name) {
+        if (TextUtils.isEmpty(name)) return null;
+
+        ParsedConfig parsed = mConfigJsons.get(name);
+        if (parsed != null) return parsed.json;
+
+        // 加载完成前可能读到内置资源, 结果不缓存
+        boolean isCacheable = isReady();
+        String value = getConfig(name);
+        if (TextUtils.isEmpty(value)) return null;
+        try {
+            JSONObject json = new JSONObject(value);
+            // 解析后对象占用按原文大小估算
+            if (isCacheable)
+                mConfigJsons.put(name, new ParsedConfig(json, (name.length() + value.length()) * 2));
+            return json;
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 流式读取配置, 适合不宜整体解析的大配置, 结果不缓存. 使用后需关闭
+     *
+     * @param name 文件名
+     * @return JsonReader 或 空
+     */
+    public JsonReader getConfigReader(String name) {
+        if (TextUtils.isEmpty(name)) return null;
+
+        InputStream in = null;
+        try {
+            String assetPath = getAssetPath(name);
+            if (AssetArchive.isEntryPath(assetPath)) {
+                in = AssetArchive.openEntry(assetPath);
+            } else if (!TextUtils.isEmpty(assetPath) && new File(assetPath).isFile()) {
+                in = new FileInputStream(assetPath);
+            }
+            if (in == null && isFileInAssets(name)) {
+                in = mContext.getAssets().open(mBundleDir + "/" + name);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (in == null) return null;
+
+        return new JsonReader(new InputStreamReader(new BufferedInputStream(in), CHARSET_UTF8));
+    }
+
+    /**
+     * 获取资源内容的只读数据, 适合大文件流式读取.
+     * 文件资源为内存映射; 资源包内未压缩的资源为映射切片, 均不复制到堆内存
+     *
+     * @param name 文件名
+     * @return 只读数据 或 空(资源不存在或不是文件)
+     */
+    public ByteBuffer getAssetBuffer(String name) {
+        String assetPath = getAssetPath(name);
+        if (AssetArchive.isEntryPath(assetPath)) return AssetArchive.getEntryBuffer(assetPath);
+        if (TextUtils.isEmpty(assetPath) || !new File(assetPath).isFile()) return null;
+
+        return FileUtils.map(assetPath);
+    }
+
+    /**
+     * 读取资源数据, 包括资源包内的资源
+     *
+     * @param assetPath 资源路径
+     * @return 数据 或 空
+     */
+    private static byte[] readAsset(String assetPath) {
+        if (AssetArchive.isEntryPath(assetPath)) return AssetArchive.readEntry(assetPath);
+        return FileUtils.read(assetPath);
+    }
+
+    /**
+     * 资源是否存在, 包括资源包内的资源
+     *
+     * @param assetPath 资源路径
+     * @param name      资源名称
+     */
+    private static boolean isAssetExists(String assetPath, String name) {
+        if (TextUtils.isEmpty(assetPath)) return false;
+        if (!AssetArchive.isEntryPath(assetPath)) return isAssetFile(new File(assetPath), name);
+
+        int index = assetPath.indexOf(AssetArchive.ENTRY_SEPARATOR);
+        AssetArchive archive = AssetArchive.get(assetPath.substring(0, index));
+        String entryName = assetPath.substring(index + AssetArchive.ENTRY_SEPARATOR.length());
+        return archive != null && (archive.isFile(entryName) || (archive.isDirectory(entryName) && !name.contains(".")));
+    }
+
+    /**
+     * 设置配置缓存容量
+     *
+     * @param maxBytes 最大字节数
+     */
+    public static void setConfigCacheSize(int maxBytes) {
+        if (maxBytes > 0) {
+            mConfigValues.resize(maxBytes);
+            mConfigJsons.resize(maxBytes);
+        }
+    }
+
+    /**
+     * 设置不存在的配置的缓存有效期, 有效期内重复获取直接返回空
+     *
+     * @param ttlMillis 有效期(毫秒), 小于等于 0 时不缓存
+     */
+    public static void setMissingConfigTtl(long ttlMillis) {
+        mMissingConfigTtl = ttlMillis;
+        if (ttlMillis <= 0) mMissingConfigs.evictAll();
+    }
+
+    /**
+     * 配置缓存统计
+     *
+     * @return 当前的命中次数、未命中次数、淘汰次数及占用字节数
+     */
+    public static ConfigCacheStats getConfigCacheStats() {
+        return new ConfigCacheStats(mConfigValues.hitCount(), mConfigValues.missCount(),
+                mConfigValues.evictionCount(), mConfigValues.size(), mConfigValues.maxSize());
+    }
+
+    /**
+     * 资源更新时清除对应的配置缓存及图片缓存
+     *
+     * @param name 资源名称
+     */
+    private void invalidateAsset(String name) {
+        if (name == null) return;
+
+        mConfigValues.remove(name);
+        mConfigJsons.remove(name);
+        mBitmapCache.invalidate(name);
+        // 资源包可能带来任意新文件, 清除全部不存在记录
+        mMissingConfigs.evictAll();
+    }
+
     /**
      * 是否最新版本
      *
@@ -174,19 +677,12 @@ public class AssetsManager {
      * @return
      */
     public boolean getLatestVersion(String zip) {
-        if (!isUpdateMainConfigLoadComplate || mAssetInfoList == null) {
+        AssetManifest manifest = mAssetManifest;
+        if (!isUpdateMainConfigLoadComplate || manifest == null || zip == null) {
             return false;
         }
-        for (AssetInfoModel assetInfo : mAssetInfoList) {
-            if (zip.equals(assetInfo.zip)) {
-                if (!TextUtils.isEmpty(assetInfo.ver) && assetInfo.ver.equals(readAssetVersion(zip))) {
-                    return true;
-                } else {
-                    return false;
-                }
-            }
-        }
-        return false;
+        AssetInfoModel assetInfo = manifest.zipIndex.get(zip);
+        return assetInfo != null && !TextUtils.isEmpty(assetInfo.ver) && assetInfo.ver.equals(readAssetVersion(zip));
     }
 
     /**
@@ -196,15 +692,11 @@ public class AssetsManager {
      * @return
      */
     public boolean isNameInAssets(String name) {
-        if ( mAssetInfoList == null || TextUtils.isEmpty(name)) {
+        AssetManifest manifest = mAssetManifest;
+        if (manifest == null || TextUtils.isEmpty(name)) {
             return false;
         }
-        for (AssetInfoModel assetInfo : mAssetInfoList) {
-            if (name.equals(assetInfo.name)) {
-                return true;
-            }
-        }
-        return false;
+        return manifest.nameIndex.containsKey(name);
     }
 
     /**
@@ -214,57 +706,358 @@ public class AssetsManager {
      * @return
      */
     public Bitmap getAssetBitmap(String name) {
+        return getAssetBitmap(name, 0, 0);
+    }
+
+    /**
+     * 读取 图片文件, 按目标尺寸采样解码, 解码结果缓存
+     *
+     * @param name      资源名称
+     * @param reqWidth  目标宽度, 小于等于 0 时不采样
+     * @param reqHeight 目标高度, 小于等于 0 时不采样
+     * @return 图片 或 空
+     */
+    public Bitmap getAssetBitmap(String name, int reqWidth, int reqHeight) {
+        // 加载完成前可能读到内置资源, 解码结果不缓存
+        boolean isCacheable = isReady();
         String pathString = getAssetPath(name);
         if (!TextUtils.isEmpty(pathString)) {
-            Bitmap bitmap = null;
-            File file = new File(pathString);
-            if (file.exists()) {
-                bitmap = BitmapFactory.decodeFile(pathString);
-            }
-            return bitmap;
+            return mBitmapCache.get(name, pathString, reqWidth, reqHeight, isCacheable);
         }
         return null;
     }
 
     /**
-     * 获取资源路径
+     * 图片缓存, 可设置解码器及复用策略
+     */
+    public BitmapCache getBitmapCache() {
+        return mBitmapCache;
+    }
+
+    /**
+     * 获取资源路径.
+     * 延迟解压内置资源时, 首次获取尚未解压的资源包中的资源会在调用线程中解压该资源包, 可能阻塞较长时间,
+     * 主线程中使用 getAssetPathAsync
      *
      * @param name 文件名
-     * @return 资源路径 或 空
+     * @return 资源路径 或 空. 资源包内的资源为 资源包路径!/名称, 不能作为文件直接打开
      */
     public String getAssetPath(String name) {
+        String path = getInstalledAssetPath(name);
+        // 内置资源尚未解压, 按需解压所属资源包
+        if (path == null && !mPendingBundleZips.isEmpty() && installPendingBundleAsset(name))
+            path = getInstalledAssetPath(name);
+        return path;
+    }
+
+    /**
+     * 获取已安装资源的路径, 不解压延迟解压的内置资源包
+     *
+     * @param name 文件名
+     * @return 资源路径 或 空
+     */
+    private String getInstalledAssetPath(String name) {
         if (TextUtils.isEmpty(mStoragePath) || TextUtils.isEmpty(name)) return null;
 
-        String assetPath = null;
-        synchronized (this) {
-            String path = mStoragePath + "/" + name;
-            File file = new File(path);
-            if (file.exists() && file.isFile()) {
-                assetPath = path;
-            } else if (file.exists() && !name.contains(".")) {
-                assetPath = path;
+        // 已安装资源快照, 无需加锁和访问文件系统
+        Map<String, String> installedAssets = mInstalledAssets;
+        if (installedAssets == null) return getAssetPathFromDisk(name);
+        return installedAssets.get(name);
+    }
+
+    public String getAssetPath(String name, String nulls) {
+        return getAssetPath(name);
+    }
+
+    /**
+     * 从文件系统获取资源路径, 快照尚未建立或资源正在安装时使用
+     *
+     * @param name 文件名
+     * @return 资源路径 或 空
+     */
+    private String getAssetPathFromDisk(String name) {
+        if (TextUtils.isEmpty(mStoragePath) || TextUtils.isEmpty(name)) return null;
+
+        // 先按清单顺序查找各资源包的当前版本目录, 多个资源包包含同名资源时靠前的优先
+        AssetManifest manifest = mAssetManifest;
+        if (manifest != null) {
+            for (String zip : manifest.zipList) {
+                File genFile = getGenerationFile(zip);
+                if (genFile == null) continue;
+                String path = genFile.isFile() ? AssetArchive.getEntryPath(genFile.getPath(), name) : genFile.getPath() + "/" + name;
+                if (isAssetExists(path, name)) return path;
+            }
+        }
+
+        // 旧版本直接安装在存储目录下的资源
+        String path = mStoragePath + "/" + name;
+        if (isAssetFile(new File(path), name)) return path;
+        return null;
+    }
+
+    /**
+     * 资源是文件, 或无扩展名的目录资源
+     */
+    private static boolean isAssetFile(File file, String name) {
+        return file.isFile() || (file.exists() && !name.contains("."));
+    }
+
+    /**
+     * 重新生成已安装资源快照, 加载主配置文件时调用, 单个资源包安装后使用 refreshInstalledAssets(zip).
+     * 快照整体替换, 读取方看到的资源要么全部来自旧版本目录, 要么全部来自新版本目录
+     */
+    private void refreshInstalledAssets() {
+        if (TextUtils.isEmpty(mStoragePath)) return;
+
+        synchronized (mInstallLock) {
+            HashMap<String, String> installedAssets = new HashMap<>();
+            File[] files = new File(mStoragePath).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    // 跳过版本目录、版本存储及临时解压目录
+                    String fileName = file.getName();
+                    if (ASSET_VERSION_NAME.equals(fileName) || ASSET_GENERATION_DIR_NAME.equals(fileName)
+                            || fileName.startsWith(ASSET_VERSION_STORE_NAME) || fileName.startsWith(ASSET_STAGING_PREFIX)) continue;
+                    collectInstalledAssets(file, fileName, installedAssets);
+                }
+            }
+
+            // 资源包的当前版本目录覆盖存储目录下的同名资源, 按清单逆序覆盖, 与 getAssetPathFromDisk 一致靠前的优先
+            AssetManifest manifest = mAssetManifest;
+            if (manifest != null) {
+                for (int i = manifest.zipList.size() - 1; i >= 0; i--) {
+                    collectGenerationAssets(getGenerationFile(manifest.zipList.get(i)), installedAssets);
+                }
+            }
+            mInstalledAssets = Collections.unmodifiableMap(installedAssets);
+        }
+    }
+
+    /**
+     * 资源包安装后增量更新快照: 复制当前快照, 移除该资源包旧版本目录中的资源, 加入新版本目录中的资源.
+     * 只读取该资源包的版本目录; 快照尚未建立或资源包不在清单中时完整重建
+     *
+     * @param zip 资源包名
+     */
+    private void refreshInstalledAssets(String zip) {
+        if (TextUtils.isEmpty(mStoragePath)) return;
+
+        synchronized (mInstallLock) {
+            Map<String, String> currentAssets = mInstalledAssets;
+            AssetManifest manifest = mAssetManifest;
+            int rank = manifest != null ? manifest.zipList.indexOf(zip) : -1;
+            if (currentAssets == null || rank < 0) {
+                refreshInstalledAssets();
+                return;
+            }
+
+            // 各资源包当前版本目录在清单中的顺序, 同名资源靠前的优先
+            String genRootPath = new File(mStoragePath, ASSET_GENERATION_DIR_NAME).getPath() + "/";
+            HashMap<String, Integer> generationRanks = new HashMap<>();
+            for (int i = 0; i < manifest.zipList.size(); i++) {
+                String generation = readAssetVersion(manifest.zipList.get(i) + ASSET_GENERATION_SUFFIX);
+                if (generation != null) generationRanks.put(generation, i);
+            }
+
+            // 移除该资源包各旧版本目录中的资源, 版本目录名称以资源包的键开头
+            String generationPrefix = keyWithString(zip) + "_";
+            HashMap<String, String> installedAssets = new HashMap<>(currentAssets);
+            List<String> removedNames = new ArrayList<>();
+            Iterator<Map.Entry<String, String>> iterator = installedAssets.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, String> entry = iterator.next();
+                String generation = getGenerationName(entry.getValue(), genRootPath);
+                if (generation != null && generation.startsWith(generationPrefix)) {
+                    removedNames.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+
+            // 加入新版本目录中的资源, 同名资源由清单中靠前的资源包提供时保留
+            HashMap<String, String> addedAssets = new HashMap<>();
+            collectGenerationAssets(getGenerationFile(zip), addedAssets);
+            for (Map.Entry<String, String> entry : addedAssets.entrySet()) {
+                Integer currentRank = generationRanks.get(getGenerationName(installedAssets.get(entry.getKey()), genRootPath));
+                if (currentRank == null || currentRank > rank) installedAssets.put(entry.getKey(), entry.getValue());
             }
 
+            // 新版本中已删除的资源, 由其他资源包或存储目录下的同名资源提供
+            for (String name : removedNames) {
+                if (installedAssets.containsKey(name)) continue;
+                String path = getAssetPathFromDisk(name);
+                if (path != null) installedAssets.put(name, path);
+            }
+            mInstalledAssets = Collections.unmodifiableMap(installedAssets);
         }
+    }
 
-        return assetPath;
+    /**
+     * 收集资源包当前版本中的资源
+     *
+     * @param genFile         版本目录或资源包文件, 为空时忽略
+     * @param installedAssets 收集结果, 值为资源路径
+     */
+    private void collectGenerationAssets(File genFile, Map<String, String> installedAssets) {
+        if (genFile == null) return;
+
+        // 资源包按中央目录索引收集
+        if (genFile.isFile()) {
+            collectArchiveAssets(genFile.getPath(), installedAssets);
+            return;
+        }
+        File[] genFiles = genFile.listFiles();
+        if (genFiles == null) return;
+        for (File file : genFiles) {
+            collectInstalledAssets(file, file.getName(), installedAssets);
+        }
     }
 
-    public String getAssetPath(String name, String nulls) {
-        if (TextUtils.isEmpty(mStoragePath) || TextUtils.isEmpty(name)) return null;
+    /**
+     * 资源路径所在的版本目录名称
+     *
+     * @param path        资源路径
+     * @param genRootPath 版本目录的根目录, 以 "/" 结尾
+     * @return 版本目录或资源包文件名称 或 空(不在版本目录中)
+     */
+    private static String getGenerationName(String path, String genRootPath) {
+        if (path == null || !path.startsWith(genRootPath)) return null;
+
+        int start = genRootPath.length();
+        int end = start;
+        while (end < path.length() && path.charAt(end) != '/' && path.charAt(end) != '!') end++;
+        return path.substring(start, end);
+    }
+
+    /**
+     * 递归收集文件及目录
+     *
+     * @param file            文件或目录
+     * @param name            资源名称
+     * @param installedAssets 收集结果, 值为资源路径
+     */
+    private void collectInstalledAssets(File file, String name, Map<String, String> installedAssets) {
+        if (isAssetFile(file, name)) installedAssets.put(name, file.getPath());
+        if (file.isFile()) return;
+
+        File[] files = file.listFiles();
+        if (files == null) return;
+        for (File child : files) {
+            collectInstalledAssets(child, name + "/" + child.getName(), installedAssets);
+        }
+    }
+
+    /**
+     * 收集资源包内的文件及目录
+     *
+     * @param archivePath     资源包路径
+     * @param installedAssets 收集结果, 值为资源包内的资源路径
+     */
+    private void collectArchiveAssets(String archivePath, Map<String, String> installedAssets) {
+        AssetArchive archive = AssetArchive.get(archivePath);
+        if (archive == null) return;
+
+        for (String name : archive.getFileNames()) {
+            installedAssets.put(name, AssetArchive.getEntryPath(archivePath, name));
+        }
+        for (String name : archive.getDirectoryNames()) {
+            if (!name.contains(".")) installedAssets.put(name, AssetArchive.getEntryPath(archivePath, name));
+        }
+    }
+
+    /**
+     * 资源包的当前版本目录
+     *
+     * @param zip 资源包名
+     * @return 版本目录 或 空(未安装到版本目录, 或以资源包形式安装)
+     */
+    private File getGenerationDir(String zip) {
+        File genFile = getGenerationFile(zip);
+        return genFile != null && genFile.isDirectory() ? genFile : null;
+    }
+
+    /**
+     * 资源包的当前版本, 解压安装时为目录, 保留压缩包安装时为资源包文件
+     *
+     * @param zip 资源包名
+     * @return 版本目录或资源包文件 或 空
+     */
+    private File getGenerationFile(String zip) {
+        String generation = readAssetVersion(zip + ASSET_GENERATION_SUFFIX);
+        if (generation == null) return null;
 
-        String assetPath = null;
-        synchronized (this) {
-            String path = mStoragePath + "/" + name;
-            File file = new File(path);
-            if (file.exists() && file.isFile()) {
-                assetPath = path;
-            } else if (file.exists() && !name.contains(".")) {
-                assetPath = path;
+        File genFile = new File(mStoragePath + "/" + ASSET_GENERATION_DIR_NAME + "/" + generation);
+        return genFile.exists() ? genFile : null;
+    }
+
+    /**
+     * 把暂存目录发布为资源包的新版本目录.
+     * 暂存目录整体重命名后切换版本指针, 之后调用 refreshInstalledAssets 更新快照; 旧版本目录下次启动时回收
+     *
+     * @param zip        资源包名
+     * @param ver        资源版本
+     * @param stagedPath 已完整解压的暂存目录或已校验的资源包文件, 与存储目录在同一文件系统
+     * @return 是否成功
+     */
+    private boolean installGeneration(String zip, String ver, String stagedPath) {
+        if (TextUtils.isEmpty(zip) || mVersionStore == null) return false;
+
+        File genRoot = new File(mStoragePath + "/" + ASSET_GENERATION_DIR_NAME);
+        if (!genRoot.exists()) genRoot.mkdirs();
+
+        synchronized (mInstallLock) {
+            File stagedFile = new File(stagedPath);
+            // 资源包文件保留扩展名, 与版本目录区分
+            String generation = keyWithString(zip) + "_" + System.currentTimeMillis() + (stagedFile.isFile() ? ".zip" : "");
+            File genDir = new File(genRoot, generation);
+            if (genDir.exists() || !stagedFile.renameTo(genDir)) return false;
+
+            if (!mVersionStore.put(zip + ASSET_GENERATION_SUFFIX, generation)) {
+                deleteDir(genDir);
+                return false;
             }
+            saveAssetVersion(zip, ver);
+            // 已发布新版本, 不再解压内置资源包
+            mPendingBundleZips.remove(zip);
+            return true;
         }
+    }
+
+    /**
+     * 回收不再被引用的版本目录, 只在启动加载时调用.
+     * 运行期间读取方可能持有任意旧版本目录中的路径, 被替换的目录保留到下次启动, 此时本进程外没有读取方
+     */
+    private void reclaimGenerations() {
+        synchronized (mInstallLock) {
+            // 清单未加载时无法判断引用关系
+            AssetManifest manifest = mAssetManifest;
+            File[] genDirs = new File(mStoragePath + "/" + ASSET_GENERATION_DIR_NAME).listFiles();
+            if (manifest == null || genDirs == null) return;
+
+            HashSet<String> generations = new HashSet<>();
+            for (String zip : manifest.zipList) {
+                String generation = readAssetVersion(zip + ASSET_GENERATION_SUFFIX);
+                if (generation != null) generations.add(generation);
+            }
+
+            for (File genDir : genDirs) {
+                if (generations.contains(genDir.getName())) continue;
+                deleteDir(genDir);
+                AssetArchive.release(genDir.getPath());
+            }
+        }
+    }
+
+    /**
+     * 删除存储目录下的暂存文件及目录, 只在启动加载时调用, 此时没有进行中的安装
+     */
+    private void deleteStagingFiles() {
+        if (TextUtils.isEmpty(mStoragePath)) return;
 
-        return assetPath;
+        File[] files = new File(mStoragePath).listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.getName().startsWith(ASSET_STAGING_PREFIX)) deleteDir(file);
+        }
     }
 
     /**
@@ -275,82 +1068,188 @@ public class AssetsManager {
             return;
         }
 
-        synchronized (this) {
+        synchronized (mInstallLock) {
+            // 版本、安装目录及摘要记录合并写入, 只同步一次
+            mVersionStore.beginBatch();
+            try {
+                //当前应用版本名称
+                String appVersionName = getAppVersionName(mContext);
+                //本地缓存asset文件的应用版本名称
+                String AppLocalConfigVersionName = readAssetVersion(APP_ASSET_VERSION_NAME);
+                if (!appVersionName.equals(AppLocalConfigVersionName)) {
+                    // 如果存储目录中存在主配置文件, 直接加载
+                    File storagefile = new File(mStoragePath);
+                    if (storagefile.exists()) {
+                        deleteDir(storagefile);
+                    }
+                    mVersionStore.reset();
+                    mPendingBundleZips.clear();
+                    // 存储目录已清空, 快照失效
+                    mInstalledAssets = null;
+                }
 
-            //当前应用版本名称
-            String appVersionName = getAppVersionName(mContext);
-            //本地缓存asset文件的应用版本名称
-            String AppLocalConfigVersionName = readAssetVersion(APP_ASSET_VERSION_NAME);
-            if (!appVersionName.equals(AppLocalConfigVersionName)) {
+                // 主配置文件存储路径
+                String mainConfigStoragePath = mStoragePath + "/" + ASSET_MAIN_CONF_NAME;
                 // 如果存储目录中存在主配置文件, 直接加载
-                File storagefile = new File(mStoragePath);
-                if (storagefile.exists()) {
-                    deleteDir(storagefile);
+                File file = new File(mainConfigStoragePath);
+                if (file.exists() && file.isFile()) {
+                    mAssetManifest = AssetManifest.create(getAssetInfoList(mainConfigStoragePath));
+                    // 如果主配置文件加载异常, 删除并重新加载
+                    if (mAssetManifest == null) {
+                        file.delete();
+                        loadMainConfig();
+                    }
                 }
-            }
+                // 否则先把内置的主配置文件复制到存储目录, 再进行加载
+                else {
+                    if (isFileInAssets(ASSET_MAIN_CONF_NAME)) {
+                        try {
+                            // 加载内置主配置文件
+                            InputStream isMainConfig = mContext.getAssets().open(mBundleDir + "/" + ASSET_MAIN_CONF_NAME);
+                            byte[] mainConfigBundleData = FileUtils.read(isMainConfig);
+                            if (mainConfigBundleData != null && mainConfigBundleData.length > 0) {
+                                mAssetManifest = AssetManifest.create(getAssetInfoList(mainConfigBundleData));
+                                // 内置主配置文件复制到储存目录
+                                FileUtils.write(mainConfigStoragePath, mainConfigBundleData);
+                                saveAssetVersion(APP_ASSET_VERSION_NAME, appVersionName);//保存资源的版本名称
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
 
-            // 主配置文件存储路径
-            String mainConfigStoragePath = mStoragePath + "/" + ASSET_MAIN_CONF_NAME;
-            // 如果存储目录中存在主配置文件, 直接加载
-            File file = new File(mainConfigStoragePath);
-            if (file.exists() && file.isFile()) {
-                mAssetInfoList = getAssetInfoList(mainConfigStoragePath);
-                // 如果主配置文件加载异常, 删除并重新加载
-                if (mAssetInfoList == null || mAssetInfoList.size() == 0) {
-                    file.delete();
-                    loadMainConfig();
                 }
-            }
-            // 否则先把内置的主配置文件复制到存储目录, 再进行加载
-            else {
-                if (isFileInAssets(ASSET_MAIN_CONF_NAME)) {
-                    try {
-                        // 加载内置主配置文件
-                        InputStream isMainConfig = mContext.getAssets().open(mBundleDir + "/" + ASSET_MAIN_CONF_NAME);
-                        byte[] mainConfigBundleData = FileUtils.read(isMainConfig);
-                        if (mainConfigBundleData != null && mainConfigBundleData.length > 0) {
-                            mAssetInfoList = getAssetInfoList(mainConfigBundleData);
-                            // 内置主配置文件复制到储存目录
-                            FileUtils.write(mainConfigStoragePath, mainConfigBundleData);
-                            saveAssetVersion(APP_ASSET_VERSION_NAME, appVersionName);//保存资源的版本名称
+
+                // 校验资源文件
+                AssetManifest manifest = mAssetManifest;
+                if (manifest != null) {
+                    for (AssetInfoModel assetInfo : manifest.assetInfoList) {
+                        // 资源路径, 安装过程中快照未更新, 直接检查文件系统
+                        String assetPath = getAssetPathFromDisk(assetInfo.name);
+                        // 是否需要从内置资源中复制到存储目录
+                        boolean isNeedCopy = false;
+                        if (TextUtils.isEmpty(assetPath)) {
+                            isNeedCopy = true;
+                        } else {
+                            // 资源不存在 or 资源类型异常(资源只能是文件)
+                            if (!isAssetExists(assetPath, assetInfo.name))
+                                isNeedCopy = true;
+                        }
+                        // 延迟解压, 记录待解压的资源包
+                        if (isNeedCopy && isLazyBundleInstallEnabled && isFileInAssets(assetInfo.zip)) {
+                            if (!mPendingBundleZips.containsKey(assetInfo.zip)) {
+                                mPendingBundleZips.put(assetInfo.zip, new PendingBundleZip(assetInfo, readAssetVersion(assetInfo.zip + ASSET_GENERATION_SUFFIX)));
+                            }
+                        }
+                        // 需要复制资源
+                        else if (isNeedCopy && isFileInAssets(assetInfo.zip)) {
+                            try {
+                                InputStream isAssetInfo = mContext.getAssets().open(mBundleDir + "/" + assetInfo.zip);
+                                // 解压成功后发布为资源包的版本目录, 同时保存资源版本
+                                boolean isSuccess = safeUnzipFile(isAssetInfo, assetInfo.zip, assetInfo.ver);
+                                // 内置资源包不计算摘要, 记录内置主配置文件中的摘要(未校验), 二者一同打包
+                                if (isSuccess) saveAssetDigest(assetInfo.zip, assetInfo.sha256);
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                            }
                         }
-                    } catch (Exception e) {
-                        e.printStackTrace();
                     }
                 }
 
+                // 发布已安装资源快照
+                refreshInstalledAssets();
+                // 内置资源可能已复制到存储目录, 清除按旧资源建立的缓存
+                mMissingConfigs.evictAll();
+                mConfigValues.evictAll();
+                mConfigJsons.evictAll();
+                mBitmapCache.clear();
+            } finally {
+                mVersionStore.commitBatch();
             }
+        }
 
-            // 校验资源文件
-            if (mAssetInfoList != null || mAssetInfoList.size() > 0) {
-                for (AssetInfoModel assetInfo : mAssetInfoList) {
-                    // 资源路径
-                    String assetPath = getAssetPath(assetInfo.name);
-                    // 是否需要从内置资源中复制到存储目录
-                    boolean isNeedCopy = false;
-                    if (TextUtils.isEmpty(assetPath)) {
-                        isNeedCopy = true;
-                    } else {
-                        File assetFile = new File(assetPath);
-                        // 资源不存在 or 资源类型异常(资源只能是文件)
-                        if (!assetFile.exists() || (!file.isFile() && assetInfo.name.contains(".")))
-                            isNeedCopy = true;
-                    }
-                    // 需要复制资源
-                    if (isNeedCopy && isFileInAssets(assetInfo.zip)) {
-                        try {
-                            InputStream isAssetInfo = mContext.getAssets().open(mBundleDir + "/" + assetInfo.zip);
-                            boolean isSuccess = safeUnzipFile(isAssetInfo, mStoragePath);
-                            // 资源复制成功, 保存资源版本
-                            if (isSuccess) {
-                                boolean isok = saveAssetVersion(assetInfo.zip, assetInfo.ver);
-                            }
-                        } catch (Exception e) {
-                            e.printStackTrace();
+        // 后台解压其余内置资源包
+        if (!mPendingBundleZips.isEmpty()) {
+            mIoExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Thread thread = Thread.currentThread();
+                    int priority = thread.getPriority();
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    try {
+                        for (String zip : mPendingBundleZips.keySet()) {
+                            installPendingBundleZip(zip);
                         }
+                    } finally {
+                        thread.setPriority(priority);
                     }
                 }
+            });
+        }
+    }
+
+    /**
+     * 解压资源所属的内置资源包
+     *
+     * @param name 资源名称, 可以是资源目录下的文件
+     * @return 是否解压了资源包
+     */
+    private boolean installPendingBundleAsset(String name) {
+        AssetManifest manifest = mAssetManifest;
+        if (manifest == null) return false;
+
+        // 依次按资源名称及其上级目录查找所属资源包
+        String assetName = name;
+        while (true) {
+            AssetInfoModel assetInfo = manifest.nameIndex.get(assetName);
+            if (assetInfo != null && mPendingBundleZips.containsKey(assetInfo.zip))
+                return installPendingBundleZip(assetInfo.zip);
+            int index = assetName.lastIndexOf('/');
+            if (index <= 0) return false;
+            assetName = assetName.substring(0, index);
+        }
+    }
+
+    /**
+     * 解压待解压的内置资源包, 并发调用时只解压一次
+     *
+     * @param zip 资源包名
+     * @return 是否已安装, 本次发布或其他线程已处理时为 true; 解压失败或期间已安装其他版本而未发布时为 false
+     */
+    private boolean installPendingBundleZip(String zip) {
+        PendingBundleZip pending = mPendingBundleZips.get(zip);
+        if (pending == null) return false;
+
+        synchronized (pending) {
+            // 其他线程已解压
+            if (mPendingBundleZips.get(zip) != pending) return true;
+
+            AssetInfoModel assetInfo = pending.assetInfo;
+            // 解压在安装锁外进行
+            String tmpOutPath = mStoragePath + "/" + ASSET_STAGING_PREFIX + "unzip_" + keyWithString(zip) + "_" + System.currentTimeMillis();
+            boolean isUnzipped = false;
+            try {
+                isUnzipped = FileUtils.unzip(mContext.getAssets().open(mBundleDir + "/" + zip), tmpOutPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            // 是否发布为版本目录, 只有发布后才记录摘要
+            boolean isInstalled = false;
+            synchronized (mInstallLock) {
+                // 期间已下载安装新版本时不再覆盖
+                if (isUnzipped && TextUtils.equals(pending.generation, readAssetVersion(zip + ASSET_GENERATION_SUFFIX)))
+                    isInstalled = installGeneration(zip, assetInfo.ver, tmpOutPath);
+                if (isInstalled) {
+                    // 内置资源包不计算摘要, 记录内置主配置文件中的摘要(未校验), 二者一同打包
+                    saveAssetDigest(zip, assetInfo.sha256);
+                    refreshInstalledAssets(zip);
+                } else {
+                    deleteDir(new File(tmpOutPath));
+                }
+                mPendingBundleZips.remove(zip, pending);
             }
+            if (isInstalled) invalidateAsset(assetInfo.name);
+            return isInstalled;
         }
     }
 
@@ -362,10 +1261,25 @@ public class AssetsManager {
 
         // 主配置文件链接
         String url = mAssetDirUrl + "/" + ASSET_MAIN_CONF_NAME;
+        // 本地已有主配置文件时使用条件请求, 未变化只返回 304
+        HashMap<String, String> headers = new HashMap<>();
+        if (new File(mStoragePath + "/" + ASSET_MAIN_CONF_NAME).isFile()) {
+            String etag = readAssetVersion(ASSET_MAIN_CONF_ETAG_NAME);
+            String lastModified = readAssetVersion(ASSET_MAIN_CONF_LAST_MODIFIED_NAME);
+            if (!TextUtils.isEmpty(etag)) headers.put("If-None-Match", etag);
+            if (!TextUtils.isEmpty(lastModified)) headers.put("If-Modified-Since", lastModified);
+        }
         // 开始下载
-        HttpRequest request = new HttpRequest(url, null, HttpRequest.Method.GET, new HttpRequest.OnHttpRequestListener() {
+        HttpRequest request = new HttpRequest(url, headers, null, HttpRequest.Method.GET, new HttpRequest.OnHttpRequestListener() {
+            @Override
+            public void onNotModified(HttpRequest connection) {
+                // 主配置文件未变化, 启动时已加载, 无需重新解析. 上次未完成的资源更新按已加载的清单继续
+                isUpdateMainConfigLoadComplate = true;
+                updateAssetsFile();
+            }
+
             @Override
-            public void onSuccess(HttpRequest connection, final byte[] response) {
+            public void onSuccess(final HttpRequest connection, final byte[] response) {
                 // 在子线程中更新主配置文件、重新加载主配置、更新资源文件
                 new Thread() {
                     @Override
@@ -382,15 +1296,22 @@ public class AssetsManager {
                             String mainConfigStoragePath = mStoragePath + "/" + ASSET_MAIN_CONF_NAME;
                             // 保存主配置文件
                             boolean isSuccess = false;
-                            synchronized (this) {
+                            synchronized (mInstallLock) {
                                 isSuccess = FileUtils.write(mainConfigStoragePath, response);
                             }
                             if (isSuccess) {
+                                // 旧的校验标识已不对应本地主配置文件, 资源全部安装成功前中断时下次启动完整获取
+                                saveMainConfigValidator(null, null);
+                                synchronized (mMainConfigValidatorLock) {
+                                    isAssetUpdateFailed = false;
+                                }
                                 // 主配置文件更新成功后重新载入
                                 loadMainConfig();
                                 isUpdateMainConfigLoadComplate = true;
                                 // 更新资源文件
                                 updateAssetsFile();
+                                // 记录校验标识, 资源全部安装成功后保存, 下次启动使用条件请求
+                                setPendingMainConfigValidator(connection.getResponseHeader("ETag"), connection.getResponseHeader("Last-Modified"));
                             }
                         }
                     }
@@ -399,150 +1320,465 @@ public class AssetsManager {
 
             @Override
             public void onFailure(HttpRequest connection, Exception exception) {
-                // 主配置文件下载失败
+                // 主配置文件下载失败(已按重试策略重试)
+                reportDownloadError(connection, exception);
             }
         });
+        // 主配置文件为 JSON, 压缩传输
+        request.setEnableCompression(true);
+        // 主配置文件决定所有资源的更新, 最先下载
+        request.setPriority(HttpRequest.Priority.VERYHIGH);
         mDownloadManager.addHttpRequest(request);
     }
 
-    private static String[] mAssetsList;
-
     /**
      * 判断文件是否存在与assets文件下
      *
      * @return
      */
     private boolean isFileInAssets(String name) {
-        if (TextUtils.isEmpty(name) && mContext == null) {
-            return false;
-        }
-        if (mAssetsList == null) {
-            try {
-                mAssetsList = mContext.getAssets().list(mBundleDir);
+        return isFileInBundle(name);
+    }
 
-            } catch (IOException e) {
+    /**
+     * 内置资源目录下是否存在该文件或目录, 精确匹配
+     *
+     * @param name 相对内置资源目录的路径
+     * @return 是否存在
+     */
+    public boolean isFileInBundle(String name) {
+        if (TextUtils.isEmpty(name)) return false;
 
+        return getBundleFileSet().contains(name);
+    }
+
+    /**
+     * 获取内置资源目录下指定前缀的文件及目录, 在有序索引中按区间查找
+     *
+     * @param prefix 路径前缀, 如 "images/"
+     * @return 相对内置资源目录的路径列表, 按路径排序
+     */
+    public List<String> getBundleFiles(String prefix) {
+        getBundleFileSet();
+        SortedSet<String> sortedFiles = mSortedBundleFiles;
+        if (TextUtils.isEmpty(prefix)) return new ArrayList<>(sortedFiles);
+
+        // 以该前缀开头的路径都在 [prefix, prefix + '\uffff') 区间内
+        return new ArrayList<>(sortedFiles.subSet(prefix, prefix + '\uffff'));
+    }
+
+    /**
+     * 内置资源目录索引, 首次使用时建立
+     */
+    private Set<String> getBundleFileSet() {
+        Set<String> bundleFiles = mBundleFiles;
+        if (bundleFiles != null) return bundleFiles;
+
+        synchronized (mBundleFilesLock) {
+            if (mBundleFiles == null) {
+                HashSet<String> files = new HashSet<>();
+                if (mContext != null && mBundleDir != null) {
+                    try {
+                        collectBundleFiles(mBundleDir, "", files);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                // 有序索引先发布, 读取方看到 mBundleFiles 时其已可用
+                mSortedBundleFiles = Collections.unmodifiableSortedSet(new TreeSet<>(files));
+                mBundleFiles = Collections.unmodifiableSet(files);
             }
+            return mBundleFiles;
         }
-        for (String na : mAssetsList) {
-            if (na.contains(name)) {
-                return true;
-            }
-        }
-        return false;
+    }
+
+    /**
+     * 递归收集内置资源目录下的文件及目录.
+     * 与资源命名约定一致, 名称含 "." 的视为文件, 不再列出子项
+     *
+     * @param dir    assets 中的目录
+     * @param prefix 相对内置资源目录的前缀
+     * @param files  收集结果
+     */
+    private void collectBundleFiles(String dir, String prefix, Set<String> files) throws IOException {
+        String[] names = mContext.getAssets().list(dir);
+        if (names == null) return;
 
+        for (String name : names) {
+            files.add(prefix + name);
+            if (!name.contains(".")) collectBundleFiles(dir + "/" + name, prefix + name + "/", files);
+        }
     }
 
     /**
      * 更新资源文件
      */
     private void updateAssetsFile() {
-        if (TextUtils.isEmpty(mAssetDirUrl) || TextUtils.isEmpty(mStoragePath) || mAssetInfoList == null || mAssetInfoList.size() == 0)
+        AssetManifest manifest = mAssetManifest;
+        if (TextUtils.isEmpty(mAssetDirUrl) || TextUtils.isEmpty(mStoragePath) || manifest == null)
             return;
 
-        for (AssetInfoModel assetInfo : mAssetInfoList) {
+        for (AssetInfoModel assetInfo : manifest.assetInfoList) {
             final String zip = assetInfo.zip;
             final String ver = assetInfo.ver;
             final String name = assetInfo.name;
             if (!TextUtils.isEmpty(zip) && !TextUtils.isEmpty(ver) && !TextUtils.isEmpty(name)) {
                 boolean isNeedUpdate = false;
-                // 资源路径
-                String assetPath = getAssetPath(name);
+                // 资源是否完整存在
+                boolean isInstalled = false;
+                // 资源路径, 延迟解压的内置资源包不在此解压
+                String assetPath = getInstalledAssetPath(name);
+                PendingBundleZip pending = mPendingBundleZips.get(zip);
                 // 是否需要更新
-                if (TextUtils.isEmpty(assetPath)) {
+                if (TextUtils.isEmpty(assetPath) && pending != null) {
+                    // 内置资源包尚未解压, 按内置版本判断, 版本一致时仍由首次使用或后台任务解压
+                    isNeedUpdate = !ver.equals(pending.assetInfo.ver);
+                } else if (TextUtils.isEmpty(assetPath)) {
                     isNeedUpdate = true;
                 } else {
-                    File file = new File(assetPath);
+                    isInstalled = isAssetExists(assetPath, name);
                     // 资源不存在 or 资源类型异常(资源只能是文件) or 资源版本与存储的资源版本不一致, 进行更新
-                    if (!file.exists() || (!file.isFile() && name.contains(".")) || !ver.equals(readAssetVersion(zip)))
+                    if (!isInstalled || !ver.equals(readAssetVersion(zip)))
                         isNeedUpdate = true;
                 }
-                // 更新资源
-                if (isNeedUpdate) {
+                // 只有版本号变化, 内容摘要与已安装资源包一致时只更新版本, 不重新下载
+                if (isNeedUpdate && isInstalled && !TextUtils.isEmpty(assetInfo.sha256)
+                        && assetInfo.sha256.equalsIgnoreCase(readAssetVersion(zip + ASSET_SHA256_SUFFIX))) {
+                    saveAssetVersion(zip, ver);
+                    isNeedUpdate = false;
+                }
+                // 更新资源, 同一资源包正在更新时不重复下载安装
+                if (isNeedUpdate && mUpdatingZips.add(zip)) {
                     //如果文件需要更新则移除对应缓存内容
-                    if (mConfigValues != null && mConfigValues.containsKey(name)) {
-                        mConfigValues.remove(name);
+                    invalidateAsset(name);
+                    // 已安装版本与补丁基准版本一致时只下载补丁, 否则下载完整资源包.
+                    // 补丁基于资源包的版本目录生成新版本, 旧版本直接安装在存储目录下的资源不使用补丁
+                    if (isInstalled && !TextUtils.isEmpty(assetInfo.patch) && !TextUtils.isEmpty(assetInfo.patchFrom)
+                            && assetInfo.patchFrom.equals(readAssetVersion(zip)) && getGenerationDir(zip) != null) {
+                        downloadAssetPatch(assetInfo, getAssetPriority(assetInfo));
+                    } else {
+                        downloadAsset(assetInfo, getAssetPriority(assetInfo));
                     }
-                    // 资源链接
-                    String url = mAssetDirUrl + "/" + zip;
-                    // 压缩包的保存路径
-                    String fileName = keyWithString(url);
-                    final String zipFilePath = mStoragePath + "/" + fileName;
-                    // 开始下载
-                    HttpRequest request = new HttpRequest(url, null, HttpRequest.Method.GET, new HttpRequest.OnHttpRequestListener() {
-                        @Override
-                        public void onSuccess(HttpRequest connection, byte[] response) {
-                            new Thread() {
-                                @Override
-                                public void run() {
-                                    synchronized (this) {
-                                        // 资源下载成功, 解压并更新
-                                        boolean isSuccess = safeUnzipFile(zipFilePath, mStoragePath);
-                                        // 资源更新成功, 保存资源版本
-                                        if (isSuccess) {
-                                            saveAssetVersion(zip, ver);
-                                        }
-                                        if (mAssetsListener != null) {
-                                            mAssetsListener.onDataUpdateStatus(name, isSuccess);
-                                        }
-                                    }
-                                }
-                            }.start();
+                }
+            }
+        }
+    }
+
+    /**
+     * 资源下载优先级
+     *
+     * @param assetInfo 资源信息
+     * @return 调用方指定的优先级 或 主配置文件中的优先级
+     */
+    private HttpRequest.Priority getAssetPriority(AssetInfoModel assetInfo) {
+        HttpRequest.Priority priority = mAssetPriorities.get(assetInfo.name);
+        return priority != null ? priority : assetInfo.priority;
+    }
+
+    /**
+     * 下载并安装资源, 主配置文件中有摘要或大小时安装前校验
+     *
+     * @param assetInfo 资源信息
+     * @param priority  下载优先级
+     */
+    private void downloadAsset(final AssetInfoModel assetInfo, HttpRequest.Priority priority) {
+        final String zip = assetInfo.zip;
+        final String ver = assetInfo.ver;
+        final String name = assetInfo.name;
+        // 资源链接
+        String url = mAssetDirUrl + "/" + zip;
+        // 压缩包的保存路径
+        String fileName = keyWithString(url);
+        final String zipFilePath = mStoragePath + "/" + fileName;
+        // 流式安装的暂存目录
+        final String tmpOutPath = mStoragePath + "/" + ASSET_STAGING_PREFIX + "unzip_" + fileName;
+        // 是否保留压缩包安装
+        final boolean isArchiveInstall = isArchiveInstallEnabled;
+        // 开始下载
+        HttpRequest request = new HttpRequest(url, null, HttpRequest.Method.GET, new HttpRequest.OnHttpRequestListener() {
+            @Override
+            public void onSuccess(final HttpRequest connection, byte[] response) {
+                new Thread() {
+                    @Override
+                    public void run() {
+                        // 解压在锁外进行, 只有发布新版本目录时加锁
+                        boolean isSuccess;
+                        // 摘要在接收时已计算, 大小按实际内容计算
+                        String sha256 = toHexString(connection.getDigest());
+                        long size = connection.getOutputPath() == null ? connection.getDecodedLength() : new File(zipFilePath).length();
+                        if (!verifyAsset(assetInfo, sha256, size)) {
+                            isSuccess = false;
+                            if (connection.getOutputPath() == null) deleteDir(new File(tmpOutPath));
+                            else new File(zipFilePath).delete();
+                            if (mAssetsListener != null) {
+                                mAssetsListener.onErrorDataReady("Verify failed: " + connection.getUrl()
+                                        + ", expected sha256: " + assetInfo.sha256 + ", size: " + assetInfo.size
+                                        + ", actual sha256: " + sha256 + ", size: " + size);
+                            }
+                        } else if (connection.getOutputPath() == null) {
+                            // 资源已边下载边解压到暂存目录, 直接发布
+                            isSuccess = installGeneration(zip, ver, tmpOutPath);
+                            if (!isSuccess) deleteDir(new File(tmpOutPath));
+                        } else if (isArchiveInstall) {
+                            // 校验压缩包后直接发布, 不解压
+                            isSuccess = installArchive(zipFilePath, zip, ver);
+                        } else {
+                            // 资源下载成功, 解压并发布
+                            isSuccess = safeUnzipFile(zipFilePath, zip, ver);
+                        }
+                        if (isSuccess) {
+                            saveAssetDigest(zip, sha256);
+                            refreshInstalledAssets(zip);
+                            // 下载期间可能重新缓存了旧内容
+                            invalidateAsset(name);
+                        }
+                        if (mAssetsListener != null) {
+                            mAssetsListener.onDataUpdateStatus(name, isSuccess);
                         }
+                        // 更新失败时不保存主配置文件的校验标识, 下次启动需完整获取主配置并重试
+                        finishAssetUpdate(zip, isSuccess);
+                    }
+                }.start();
+            }
+
+            @Override
+            public void onFailure(HttpRequest connection, Exception exception) {
+                reportDownloadError(connection, exception);
+                // 资源下载失败(已按重试策略重试), 下次启动需完整获取主配置并重试
+                finishAssetUpdate(zip, false);
+                // 清除未完成的解压数据
+                if (connection.getOutputPath() == null) deleteDir(new File(tmpOutPath));
+            }
+        });
+        if (isStreamInstallEnabled && !isArchiveInstall) {
+            // 响应体直接解压到临时目录, 不落地压缩包
+            request.setOnResponseStreamListener(new HttpRequest.OnResponseStreamListener() {
+                @Override
+                public boolean onResponse(HttpRequest connection, InputStream input) {
+                    File tmpOutDir = new File(tmpOutPath);
+                    if (tmpOutDir.exists()) deleteDir(tmpOutDir);
+                    return FileUtils.unzip(input, tmpOutPath);
+                }
+            });
+        } else {
+            request.setOutputPath(zipFilePath);
+            // 资源包较大, 中断后从已下载部分续传
+            request.setEnableBreakpointContinuingly(true);
+        }
+        // 接收时计算摘要, 安装前校验及之后比较内容是否变化
+        request.setDigestAlgorithm(ASSET_DIGEST_ALGORITHM);
+        request.setPriority(priority);
+        mDownloadManager.addHttpRequest(request);
+    }
 
-                        @Override
-                        public void onFailure(HttpRequest connection, Exception exception) {
-                            // 资源下载失败
+
+    /**
+     * 下载并应用资源补丁, 失败时回退到完整资源包
+     *
+     * @param assetInfo 资源信息
+     * @param priority  下载优先级
+     */
+    private void downloadAssetPatch(final AssetInfoModel assetInfo, final HttpRequest.Priority priority) {
+        final String patch = assetInfo.patch;
+        final String zip = assetInfo.zip;
+        final String ver = assetInfo.ver;
+        final String name = assetInfo.name;
+        // 补丁链接
+        String url = mAssetDirUrl + "/" + patch;
+        // 补丁包的保存路径
+        final String patchFilePath = mStoragePath + "/" + keyWithString(url);
+        // 开始下载
+        HttpRequest request = new HttpRequest(url, null, HttpRequest.Method.GET, new HttpRequest.OnHttpRequestListener() {
+            @Override
+            public void onSuccess(HttpRequest connection, byte[] response) {
+                new Thread() {
+                    @Override
+                    public void run() {
+                        // 补丁下载成功, 应用到当前版本目录的副本并发布
+                        boolean isSuccess = safeApplyPatch(patchFilePath, zip, ver);
+                        if (isSuccess) {
+                            // 补丁应用结果没有完整资源包可计算摘要, 不再记录
+                            saveAssetDigest(zip, null);
+                            refreshInstalledAssets(zip);
+                            invalidateAsset(name);
+                            if (mAssetsListener != null) {
+                                mAssetsListener.onDataUpdateStatus(name, true);
+                            }
+                            finishAssetUpdate(zip, true);
                         }
-                    });
-                    request.setOutputPath(zipFilePath);
-                    mDownloadManager.addHttpRequest(request);
+                        // 补丁应用失败, 下载完整资源包
+                        else downloadAsset(assetInfo, priority);
+                    }
+                }.start();
+            }
+
+            @Override
+            public void onFailure(HttpRequest connection, Exception exception) {
+                // 补丁不存在或下载失败, 下载完整资源包
+                reportDownloadError(connection, exception);
+                new File(patchFilePath).delete();
+                downloadAsset(assetInfo, priority);
+            }
+        });
+        request.setOutputPath(patchFilePath);
+        request.setPriority(priority);
+        mDownloadManager.addHttpRequest(request);
+    }
+
+    /**
+     * 收集下载错误日志
+     *
+     * @param connection 失败的请求
+     * @param exception  失败原因
+     */
+    private void reportDownloadError(HttpRequest connection, Exception exception) {
+        if (mAssetsListener == null) return;
+
+        mAssetsListener.onErrorDataReady("Download failed: " + connection.getUrl()
+                + ", retry count: " + connection.getRetryCount()
+                + ", response code: " + connection.getResponseCode()
+                + ", error: " + exception);
+    }
+
+    /**
+     * 安全应用补丁
+     * 补丁为压缩包, 修改的文件为 文件名.bsdiff 的二进制补丁, 基于当前版本目录中的同名文件生成新文件;
+     * 其他文件为新增或整体替换的文件; 根目录下的 .deleted 文件按行列出需要删除的文件.
+     * 当前版本目录复制到暂存目录后应用补丁, 再发布为新版本目录, 当前版本目录不修改
+     *
+     * @param patchPath 补丁文件路径
+     * @param zip       资源包名
+     * @param ver       补丁应用后的资源版本
+     * @return 是否成功
+     */
+    private boolean safeApplyPatch(String patchPath, String zip, String ver) {
+        if (TextUtils.isEmpty(patchPath) || TextUtils.isEmpty(zip)) return false;
+
+        File genDir = getGenerationDir(zip);
+        // 暂存目录及补丁解压目录, 使用资源包名和时间戳命名
+        String outPath = mStoragePath + "/" + ASSET_STAGING_PREFIX + "stage_" + keyWithString(zip) + "_" + System.currentTimeMillis();
+        String tmpOutPath = mStoragePath + "/" + ASSET_STAGING_PREFIX + "patch_" + keyWithString(zip) + "_" + System.currentTimeMillis();
+        boolean isSuccess = genDir != null && new File(outPath).mkdirs() && copyAsset(genDir.getPath(), outPath, false)
+                && FileUtils.unzip(patchPath, tmpOutPath);
+        // 删除补丁包
+        new File(patchPath).delete();
+
+        if (isSuccess) {
+            // 删除补丁中移除的文件
+            File deletedFile = new File(tmpOutPath + "/" + ASSET_PATCH_DELETED_NAME);
+            if (deletedFile.isFile()) {
+                byte[] data = FileUtils.read(deletedFile.getPath());
+                deletedFile.delete();
+                if (data != null) {
+                    for (String path : new String(data, CHARSET_UTF8).split("\n")) {
+                        path = path.trim();
+                        // 不允许删除资源目录以外的文件
+                        if (path.length() == 0 || path.contains("..")) continue;
+                        deleteDir(new File(outPath + "/" + path));
+                    }
                 }
             }
+            // 按二进制补丁生成修改的文件, 其余新增和替换的文件覆盖到暂存目录
+            isSuccess = applyFilePatches(new File(tmpOutPath), "", genDir.getPath(), outPath)
+                    && copyAsset(tmpOutPath, outPath, true);
         }
+        if (isSuccess) isSuccess = installGeneration(zip, ver, outPath);
+        // 删除临时目录, 发布成功时暂存目录已不存在
+        deleteDir(new File(tmpOutPath));
+        if (!isSuccess) deleteDir(new File(outPath));
+
+        return isSuccess;
     }
 
+    /**
+     * 应用补丁目录下的单文件二进制补丁, 应用后删除补丁文件
+     *
+     * @param dir     补丁目录
+     * @param prefix  相对补丁根目录的前缀
+     * @param oldPath 当前版本目录
+     * @param newPath 暂存目录
+     * @return 是否成功
+     */
+    private boolean applyFilePatches(File dir, String prefix, String oldPath, String newPath) {
+        File[] files = dir.listFiles();
+        if (files == null) return true;
+
+        for (File file : files) {
+            String fileName = file.getName();
+            if (file.isDirectory()) {
+                if (!applyFilePatches(file, prefix + fileName + "/", oldPath, newPath)) return false;
+            } else if (fileName.endsWith(ASSET_PATCH_DIFF_SUFFIX)) {
+                String name = prefix + fileName.substring(0, fileName.length() - ASSET_PATCH_DIFF_SUFFIX.length());
+                // 旧文件从当前版本目录读取, 新文件写入暂存目录中的副本
+                if (!BinaryPatch.apply(oldPath + "/" + name, file.getPath(), newPath + "/" + name)) return false;
+                file.delete();
+            }
+        }
+        return true;
+    }
 
     /**
-     * 安全解压文件
+     * 安全解压文件, 解压到暂存目录后发布为资源包的新版本目录
      *
      * @param zipPath 压缩文件路径
-     * @param outPath 解压目录路径
+     * @param zip     资源包名
+     * @param ver     资源版本
      * @return 是否成功
      */
-    private boolean safeUnzipFile(String zipPath, String outPath) {
-        if (TextUtils.isEmpty(zipPath) || TextUtils.isEmpty(outPath)) return false;
+    private boolean safeUnzipFile(String zipPath, String zip, String ver) {
+        if (TextUtils.isEmpty(zipPath) || TextUtils.isEmpty(zip)) return false;
 
-        // 临时解压目录, 使用时间戳命名
-        String tmpOutPath = outPath + "/tmp_unzip_" + System.currentTimeMillis();
+        // 暂存目录, 使用资源包名和时间戳命名
+        String tmpOutPath = mStoragePath + "/" + ASSET_STAGING_PREFIX + "unzip_" + keyWithString(zip) + "_" + System.currentTimeMillis();
         boolean isSuccess = FileUtils.unzip(zipPath, tmpOutPath);
-        // 解压成功, 移动文件到解压目录下
-        if (isSuccess) isSuccess = copyAsset(tmpOutPath, outPath, true);
+        // 解压成功, 发布为版本目录
+        if (isSuccess) isSuccess = installGeneration(zip, ver, tmpOutPath);
         // 删除压缩包
         new File(zipPath).delete();
-        // 删除临时目录
-        new File(tmpOutPath).delete();
+        // 失败时删除暂存目录
+        if (!isSuccess) deleteDir(new File(tmpOutPath));
+
+        return isSuccess;
+    }
+
+    /**
+     * 保留压缩包安装, 读取中央目录并校验全部条目的 CRC-32 后整体重命名发布
+     *
+     * @param zipPath 压缩文件路径
+     * @param zip     资源包名
+     * @param ver     资源版本
+     * @return 是否成功
+     */
+    private boolean installArchive(String zipPath, String zip, String ver) {
+        if (TextUtils.isEmpty(zipPath) || TextUtils.isEmpty(zip)) return false;
+
+        // 读取时不再校验, 安装前逐个条目校验一次
+        AssetArchive archive = AssetArchive.open(zipPath);
+        boolean isSuccess = archive != null && archive.verify() && installGeneration(zip, ver, zipPath);
+        // 失败时删除压缩包
+        if (!isSuccess) new File(zipPath).delete();
 
         return isSuccess;
     }
 
     /**
-     * 安全解压文件
+     * 安全解压文件, 解压到暂存目录后发布为资源包的新版本目录
      *
      * @param zipStream 压缩文件流
-     * @param outPath   解压目录路径
+     * @param zip       资源包名
+     * @param ver       资源版本
      * @return 是否成功
      */
-    private boolean safeUnzipFile(InputStream zipStream, String outPath) {
-        if (zipStream == null || TextUtils.isEmpty(outPath)) return false;
+    private boolean safeUnzipFile(InputStream zipStream, String zip, String ver) {
+        if (zipStream == null || TextUtils.isEmpty(zip)) return false;
 
-        // 临时解压目录, 使用时间戳命名
-        String tmpOutPath = outPath + "/tmp_unzip_" + System.currentTimeMillis();
+        // 暂存目录, 使用资源包名和时间戳命名
+        String tmpOutPath = mStoragePath + "/" + ASSET_STAGING_PREFIX + "unzip_" + keyWithString(zip) + "_" + System.currentTimeMillis();
         boolean isSuccess = FileUtils.unzip(zipStream, tmpOutPath);
-        // 解压成功, 移动文件到解压目录下
-        if (isSuccess) isSuccess = copyAsset(tmpOutPath, outPath, true);
-        // 删除临时目录
-        new File(tmpOutPath).delete();
+        // 解压成功, 发布为版本目录
+        if (isSuccess) isSuccess = installGeneration(zip, ver, tmpOutPath);
+        // 失败时删除暂存目录
+        if (!isSuccess) deleteDir(new File(tmpOutPath));
 
         return isSuccess;
     }
@@ -606,24 +1842,118 @@ public class AssetsManager {
      * @return 是否成功
      */
     private boolean saveAssetVersion(String zip, String version) {
-        if (TextUtils.isEmpty(mStoragePath)) return false;
+        if (TextUtils.isEmpty(mStoragePath) || mVersionStore == null) return false;
+
+        return mVersionStore.put(zip, version);
+    }
+
+    /**
+     * 删除资源版本
+     *
+     * @param zip 资源包名
+     */
+    private void deleteAssetVersion(String zip) {
+        if (TextUtils.isEmpty(mStoragePath) || mVersionStore == null) return;
+
+        mVersionStore.remove(zip);
+    }
+
+    /**
+     * 校验下载的资源包, 主配置文件中未提供的项不校验
+     *
+     * @param assetInfo 资源信息
+     * @param sha256    下载内容的 SHA-256 摘要
+     * @param size      下载内容的大小
+     * @return 是否通过
+     */
+    private static boolean verifyAsset(AssetInfoModel assetInfo, String sha256, long size) {
+        if (assetInfo.size >= 0 && assetInfo.size != size) return false;
+        return TextUtils.isEmpty(assetInfo.sha256) || assetInfo.sha256.equalsIgnoreCase(sha256);
+    }
 
-        // 资源版本保存目录
-        String assetVersionDirPath = mStoragePath + "/" + ASSET_VERSION_NAME;
+    /**
+     * 保存已安装资源包的内容摘要, 参数为空时清除
+     *
+     * @param zip    资源包名
+     * @param sha256 SHA-256 摘要
+     */
+    private void saveAssetDigest(String zip, String sha256) {
+        if (TextUtils.isEmpty(sha256)) deleteAssetVersion(zip + ASSET_SHA256_SUFFIX);
+        else saveAssetVersion(zip + ASSET_SHA256_SUFFIX, sha256.toLowerCase());
+    }
 
-        File versionDir = new File(assetVersionDirPath);
-        // 目录类型异常清除后重新创建
-        if (versionDir.exists() && versionDir.isFile()) {
-            versionDir.delete();
-            versionDir.mkdirs();
+    /**
+     * 旧版本每个资源包单独保存版本文件(.ver/asset.zip.ver), 迁移到版本存储后删除
+     */
+    private void migrateAssetVersions() {
+        File versionDir = new File(mStoragePath + "/" + ASSET_VERSION_NAME);
+        if (!versionDir.exists()) return;
+
+        File[] files = versionDir.listFiles();
+        if (files != null) {
+            HashMap<String, String> versions = new HashMap<>();
+            for (File file : files) {
+                String fileName = file.getName();
+                if (!file.isFile() || !fileName.endsWith(ASSET_VERSION_NAME)) continue;
+                byte[] bytes = FileUtils.read(file.getPath());
+                if (bytes != null && bytes.length > 0) {
+                    versions.put(fileName.substring(0, fileName.length() - ASSET_VERSION_NAME.length()), new String(bytes, CHARSET_UTF8));
+                }
+            }
+            // 写入失败时保留旧目录, 下次启动重试
+            if (!versions.isEmpty() && !mVersionStore.putAll(versions)) return;
         }
-        // 创建目录
-        if (!versionDir.exists()) versionDir.mkdirs();
+        deleteDir(versionDir);
+    }
+
+    /**
+     * 保存主配置文件的校验标识, 参数为空时清除
+     *
+     * @param etag         ETag
+     * @param lastModified Last-Modified
+     */
+    private void saveMainConfigValidator(String etag, String lastModified) {
+        if (TextUtils.isEmpty(etag)) deleteAssetVersion(ASSET_MAIN_CONF_ETAG_NAME);
+        else saveAssetVersion(ASSET_MAIN_CONF_ETAG_NAME, etag);
+
+        if (TextUtils.isEmpty(lastModified)) deleteAssetVersion(ASSET_MAIN_CONF_LAST_MODIFIED_NAME);
+        else saveAssetVersion(ASSET_MAIN_CONF_LAST_MODIFIED_NAME, lastModified);
+    }
 
-        // 资源版本存放路径 .../.ver/asset.zip.ver
-        String assetVersionFilePath = assetVersionDirPath + "/" + zip + ASSET_VERSION_NAME;
+    /**
+     * 记录更新后的主配置文件的校验标识, 资源全部安装成功后保存
+     *
+     * @param etag         ETag
+     * @param lastModified Last-Modified
+     */
+    private void setPendingMainConfigValidator(String etag, String lastModified) {
+        synchronized (mMainConfigValidatorLock) {
+            mPendingMainConfigEtag = etag;
+            mPendingMainConfigLastModified = lastModified;
+            isMainConfigValidatorPending = !isAssetUpdateFailed;
+        }
+        finishAssetUpdate(null, true);
+    }
 
-        return FileUtils.write(assetVersionFilePath, version.getBytes(CHARSET_UTF8));
+    /**
+     * 资源更新结束, 主配置文件的资源全部安装成功后保存其校验标识
+     *
+     * @param zip       资源包名, 为空时只检查是否全部结束
+     * @param isSuccess 是否成功
+     */
+    private void finishAssetUpdate(String zip, boolean isSuccess) {
+        synchronized (mMainConfigValidatorLock) {
+            if (zip != null) mUpdatingZips.remove(zip);
+            // 有资源更新失败, 不再保存
+            if (!isSuccess) {
+                isAssetUpdateFailed = true;
+                isMainConfigValidatorPending = false;
+            }
+            if (isMainConfigValidatorPending && mUpdatingZips.isEmpty()) {
+                isMainConfigValidatorPending = false;
+                saveMainConfigValidator(mPendingMainConfigEtag, mPendingMainConfigLastModified);
+            }
+        }
     }
 
     /**
@@ -633,14 +1963,11 @@ public class AssetsManager {
      * @return 资源版本
      */
     private String readAssetVersion(String zip) {
-        if (TextUtils.isEmpty(mStoragePath)) return null;
-
-        // 资源版本存放路径 .../.ver/asset.zip.ver
-        String assetVersionFilePath = mStoragePath + "/" + ASSET_VERSION_NAME + "/" + zip + ASSET_VERSION_NAME;
+        if (TextUtils.isEmpty(mStoragePath) || mVersionStore == null || zip == null) return null;
 
-        byte[] bytes = FileUtils.read(assetVersionFilePath);
-        if (bytes == null || bytes.length == 0) return null;
-        else return new String(bytes, CHARSET_UTF8);
+        // 版本存储加载后常驻内存
+        String version = mVersionStore.get(zip);
+        return TextUtils.isEmpty(version) ? null : version;
     }
 
     /**
@@ -708,6 +2035,22 @@ public class AssetsManager {
         return dir.delete();
     }
 
+    /**
+     * 字节数组转为小写十六进制字符串
+     *
+     * @param bytes 字节数组
+     * @return 十六进制字符串 或 空
+     */
+    private static String toHexString(byte[] bytes) {
+        if (bytes == null) return null;
+
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
     /**
      * 字符串生成key
      *
@@ -722,6 +2065,118 @@ public class AssetsManager {
         return null;
     }
 
+    /**
+     * 解析后的配置及其估算大小
+     */
+    private static class ParsedConfig {
+        private final JSONObject json;
+        private final int size;
+
+        ParsedConfig(JSONObject json, int size) {
+            this.json = json;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 配置缓存统计, 获取时的快照, 各项与 LruCache 的同名计数一致
+     */
+    public static class ConfigCacheStats {
+        private final int hitCount;
+        private final int missCount;
+        private final int evictionCount;
+        // 占用字节数
+        private final int size;
+        // 最大字节数
+        private final int maxSize;
+
+        ConfigCacheStats(int hitCount, int missCount, int evictionCount, int size, int maxSize) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.size = size;
+            this.maxSize = maxSize;
+        }
+
+        public int hitCount() {
+            return hitCount;
+        }
+
+        public int missCount() {
+            return missCount;
+        }
+
+        public int evictionCount() {
+            return evictionCount;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int maxSize() {
+            return maxSize;
+        }
+
+        @Override
+        public String toString() {
+            return "hit: " + hitCount + ", miss: " + missCount + ", eviction: " + evictionCount
+                    + ", size: " + size + "/" + maxSize;
+        }
+    }
+
+    /**
+     * 待解压的内置资源包
+     */
+    private static class PendingBundleZip {
+        private final AssetInfoModel assetInfo;
+        // 记录时的版本目录, 解压时已变化说明已安装其他版本
+        private final String generation;
+
+        PendingBundleZip(AssetInfoModel assetInfo, String generation) {
+            this.assetInfo = assetInfo;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * 资源清单, 不可变, 按名称和资源包名建立索引
+     */
+    private static class AssetManifest {
+        private final List<AssetInfoModel> assetInfoList;
+        private final Map<String, AssetInfoModel> nameIndex;
+        private final Map<String, AssetInfoModel> zipIndex;
+        // 资源包名, 按清单中首次出现的顺序, 不重复
+        private final List<String> zipList;
+
+        private AssetManifest(List<AssetInfoModel> list) {
+            Map<String, AssetInfoModel> names = new HashMap<>(list.size() * 2);
+            Map<String, AssetInfoModel> zips = new HashMap<>(list.size() * 2);
+            List<String> zipNames = new ArrayList<>();
+            for (AssetInfoModel assetInfo : list) {
+                // 重复时保留第一个, 与按顺序查找结果一致
+                if (assetInfo.name != null && !names.containsKey(assetInfo.name)) names.put(assetInfo.name, assetInfo);
+                if (assetInfo.zip != null && !zips.containsKey(assetInfo.zip)) {
+                    zips.put(assetInfo.zip, assetInfo);
+                    zipNames.add(assetInfo.zip);
+                }
+            }
+            assetInfoList = Collections.unmodifiableList(new ArrayList<>(list));
+            nameIndex = Collections.unmodifiableMap(names);
+            zipIndex = Collections.unmodifiableMap(zips);
+            zipList = Collections.unmodifiableList(zipNames);
+        }
+
+        /**
+         * @param list 资源列表
+         * @return 资源清单, 列表为空时返回空
+         */
+        static AssetManifest create(List<AssetInfoModel> list) {
+            if (list == null || list.size() == 0) return null;
+            return new AssetManifest(list);
+        }
+    }
+
     /**
      * 资源信息
      */
@@ -729,16 +2184,41 @@ public class AssetsManager {
         private String name;
         private String ver;
         private String zip;
+        // 补丁基准版本, 可选
+        private String patchFrom;
+        // 补丁包名, 可选
+        private String patch;
+        // 下载优先级, 可选, 默认 NORMAL
+        private HttpRequest.Priority priority = HttpRequest.Priority.NORMAL;
+        // 资源包 SHA-256 摘要(十六进制), 可选
+        private String sha256;
+        // 资源包大小(字节), 可选, 未提供时为 -1
+        private long size = -1;
 
         public AssetInfoModel(JSONObject json) {
             if (json != null) {
                 name = json.optString("name", null);
                 ver = json.optString("ver", null);
                 zip = json.optString("zip", null);
+                patchFrom = json.optString("patch_from", null);
+                patch = json.optString("patch", null);
+                priority = HttpRequest.Priority.parse(json.optString("priority", null), HttpRequest.Priority.NORMAL);
+                sha256 = json.optString("sha256", null);
+                size = json.optLong("size", -1);
             }
         }
     }
 
+    /**
+     * 异步接口回调
+     */
+    public interface AssetCallback<T> {
+        /**
+         * @param result 结果 或 空
+         */
+        void onResult(T result);
+    }
+
     public interface AssetsManagerListener {
         /**
          * 错误日志收集
@@ -0,0 +1,56 @@
+package com.autohome.ahkit.assets;
+
+/**
+ * 带宽限制, 令牌桶算法, 多个下载线程共用
+ */
+public class BandwidthLimiter {
+    // 每秒允许的字节数, 小于等于 0 时不限制
+    private volatile long mBytesPerSecond;
+    // 当前可用字节数, 为负时表示超额
+    private long mAvailable;
+    // 上次补充时间
+    private long mLastRefillTime = System.nanoTime();
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * 设置每秒允许的字节数, 小于等于 0 时不限制
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * 消耗字节数, 超出限制时阻塞当前线程
+     *
+     * @param bytes 字节数
+     */
+    public void acquire(int bytes) {
+        long rate = mBytesPerSecond;
+        if (rate <= 0 || bytes <= 0) return;
+
+        long waitNanos;
+        synchronized (this) {
+            // 按经过时间补充, 最多积累 1 秒的额度
+            long now = System.nanoTime();
+            mAvailable = Math.min(rate, mAvailable + (now - mLastRefillTime) * rate / 1000000000L);
+            mLastRefillTime = now;
+            mAvailable -= bytes;
+            waitNanos = mAvailable < 0 ? -mAvailable * 1000000000L / rate : 0;
+        }
+
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
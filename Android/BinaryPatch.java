@@ -0,0 +1,140 @@
+package com.autohome.ahkit.assets;
+
+import android.text.TextUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 单文件二进制补丁, 与 bsdiff 4.3 (ENDSLEY/BSDIFF43) 格式一致.
+ * 控制块、差异块及新增块交错存放且不单独压缩, 由补丁包的 deflate 压缩;
+ * 旧文件内存映射读取, 新文件边生成边写入, 不在堆内存中保存完整文件
+ */
+public class BinaryPatch {
+    // 补丁文件头
+    private static final byte[] MAGIC = "ENDSLEY/BSDIFF43".getBytes();
+    // 生成缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BinaryPatch() {
+    }
+
+    /**
+     * 应用补丁
+     *
+     * @param oldPath   旧文件路径
+     * @param patchPath 补丁文件路径
+     * @param newPath   新文件路径, 不能与旧文件相同
+     * @return 是否成功, 失败时新文件内容不完整
+     */
+    public static boolean apply(String oldPath, String patchPath, String newPath) {
+        if (TextUtils.isEmpty(oldPath) || TextUtils.isEmpty(patchPath) || TextUtils.isEmpty(newPath)) return false;
+
+        ByteBuffer old = FileUtils.map(oldPath);
+        if (old == null) return false;
+
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(patchPath));
+            out = new BufferedOutputStream(new FileOutputStream(newPath));
+            apply(old, in, out);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (out != null) out.close();
+                if (in != null) in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 应用补丁
+     *
+     * @param old 旧文件数据
+     * @param in  补丁数据
+     * @param out 新文件数据
+     */
+    static void apply(ByteBuffer old, InputStream in, OutputStream out) throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        readFully(in, header, header.length);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) throw new IOException("Invalid patch header");
+        }
+        long newSize = readOffset(in);
+        if (newSize < 0) throw new IOException("Invalid patch size");
+
+        int oldSize = old.limit();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long oldPos = 0;
+        long newPos = 0;
+        while (newPos < newSize) {
+            // 控制块: 差异块长度、新增块长度、旧文件偏移调整
+            long diffLength = readOffset(in);
+            long extraLength = readOffset(in);
+            long seek = readOffset(in);
+            if (diffLength < 0 || extraLength < 0 || newPos + diffLength + extraLength > newSize)
+                throw new IOException("Corrupt patch");
+
+            // 差异块与旧文件对应字节相加, 旧文件范围外的字节不变
+            long remaining = diffLength;
+            while (remaining > 0) {
+                int length = (int) Math.min(buffer.length, remaining);
+                readFully(in, buffer, length);
+                for (int i = 0; i < length; i++) {
+                    long pos = oldPos + i;
+                    if (pos >= 0 && pos < oldSize) buffer[i] += old.get((int) pos);
+                }
+                out.write(buffer, 0, length);
+                oldPos += length;
+                remaining -= length;
+            }
+            newPos += diffLength;
+
+            // 新增块直接写入
+            remaining = extraLength;
+            while (remaining > 0) {
+                int length = (int) Math.min(buffer.length, remaining);
+                readFully(in, buffer, length);
+                out.write(buffer, 0, length);
+                remaining -= length;
+            }
+            newPos += extraLength;
+            oldPos += seek;
+        }
+    }
+
+    /**
+     * 读取 8 字节偏移量, 小端序, 最高位为符号位
+     */
+    private static long readOffset(InputStream in) throws IOException {
+        byte[] bytes = new byte[8];
+        readFully(in, bytes, bytes.length);
+        long value = bytes[7] & 0x7f;
+        for (int i = 6; i >= 0; i--) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return (bytes[7] & 0x80) != 0 ? -value : value;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = in.read(buffer, offset, length - offset);
+            if (count < 0) throw new EOFException("Unexpected end of patch");
+            offset += count;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.autohome.ahkit.assets;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * 解码后的图片缓存, 按内存大小限制容量, 支持按目标尺寸采样解码及复用淘汰的图片内存
+ */
+public class BitmapCache {
+    // 复用池最大数量
+    private static final int MAX_REUSABLE_COUNT = 8;
+
+    // 图片缓存, 键为 名称@宽x高
+    private final LruCache<String, Bitmap> mCache;
+    // 可复用的图片
+    private final LinkedList<SoftReference<Bitmap>> mReusableBitmaps = new LinkedList<>();
+    // 解码器
+    private Decoder mDecoder = Decoder.DEFAULT;
+    // 是否复用淘汰的图片内存
+    private volatile boolean isReuseEnabled = false;
+
+    /**
+     * @param maxBytes 最大内存(字节)
+     */
+    public BitmapCache(int maxBytes) {
+        mCache = new LruCache<String, Bitmap>(Math.max(1, maxBytes)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                // 被淘汰的可变图片加入复用池
+                if (evicted && isReuseEnabled && oldValue.isMutable()) addReusableBitmap(oldValue);
+            }
+        };
+    }
+
+    public void setDecoder(Decoder decoder) {
+        mDecoder = decoder != null ? decoder : Decoder.DEFAULT;
+    }
+
+    /**
+     * 设置是否复用被淘汰图片的内存. 开启后调用方不能长期持有取得的图片, 否则内容可能被覆盖
+     */
+    public void setReuseEnabled(boolean enable) {
+        isReuseEnabled = enable;
+        if (!enable) {
+            synchronized (mReusableBitmaps) {
+                mReusableBitmaps.clear();
+            }
+        }
+    }
+
+    /**
+     * 获取图片, 未缓存时解码
+     *
+     * @param name      资源名称
+     * @param path      图片路径
+     * @param reqWidth  目标宽度, 小于等于 0 时不采样
+     * @param reqHeight 目标高度, 小于等于 0 时不采样
+     * @return 图片 或 空
+     */
+    public Bitmap get(String name, String path, int reqWidth, int reqHeight) {
+        return get(name, path, reqWidth, reqHeight, true);
+    }
+
+    /**
+     * 获取图片, 未缓存时解码
+     *
+     * @param name        资源名称
+     * @param path        图片路径
+     * @param reqWidth    目标宽度, 小于等于 0 时不采样
+     * @param reqHeight   目标高度, 小于等于 0 时不采样
+     * @param isCacheable 解码结果是否缓存
+     * @return 图片 或 空
+     */
+    public Bitmap get(String name, String path, int reqWidth, int reqHeight, boolean isCacheable) {
+        if (name == null || path == null) return null;
+
+        String key = name + "@" + Math.max(0, reqWidth) + "x" + Math.max(0, reqHeight);
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap != null) return bitmap;
+
+        bitmap = decode(path, reqWidth, reqHeight);
+        if (bitmap != null && isCacheable) mCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 清除资源对应的缓存, 包括目录资源下的所有图片
+     *
+     * @param name 资源名称
+     */
+    public void invalidate(String name) {
+        if (name == null) return;
+
+        String prefix = name + "/";
+        for (String key : mCache.snapshot().keySet()) {
+            String keyName = key.substring(0, key.lastIndexOf('@'));
+            if (keyName.equals(name) || keyName.startsWith(prefix)) mCache.remove(key);
+        }
+    }
+
+    public void clear() {
+        mCache.evictAll();
+        synchronized (mReusableBitmaps) {
+            mReusableBitmaps.clear();
+        }
+    }
+
+    /**
+     * 按目标尺寸采样解码
+     */
+    private Bitmap decode(String path, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (reqWidth > 0 && reqHeight > 0) {
+            // 先读取原始尺寸计算采样率
+            options.inJustDecodeBounds = true;
+            mDecoder.decode(path, options);
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+            options.inJustDecodeBounds = false;
+        }
+
+        if (isReuseEnabled) {
+            options.inMutable = true;
+            if (options.outWidth > 0 && options.outHeight > 0) {
+                int sampleSize = Math.max(1, options.inSampleSize);
+                int byteCount = (options.outWidth / sampleSize) * (options.outHeight / sampleSize) * 4;
+                options.inBitmap = takeReusableBitmap(byteCount);
+            }
+        }
+
+        try {
+            return mDecoder.decode(path, options);
+        } catch (IllegalArgumentException e) {
+            // 复用的图片不满足解码要求, 不复用重新解码
+            if (options.inBitmap == null) throw e;
+            options.inBitmap = null;
+            return mDecoder.decode(path, options);
+        }
+    }
+
+    /**
+     * 计算采样率, 取不小于目标尺寸的最大 2 的幂
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (width <= 0 || height <= 0) return inSampleSize;
+
+        while ((width / (inSampleSize * 2)) >= reqWidth && (height / (inSampleSize * 2)) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private void addReusableBitmap(Bitmap bitmap) {
+        synchronized (mReusableBitmaps) {
+            mReusableBitmaps.addFirst(new SoftReference<>(bitmap));
+            while (mReusableBitmaps.size() > MAX_REUSABLE_COUNT) mReusableBitmaps.removeLast();
+        }
+    }
+
+    /**
+     * 取出内存足够的可复用图片
+     *
+     * @param byteCount 需要的字节数
+     */
+    private Bitmap takeReusableBitmap(int byteCount) {
+        synchronized (mReusableBitmaps) {
+            Iterator<SoftReference<Bitmap>> iterator = mReusableBitmaps.iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next().get();
+                if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+                    iterator.remove();
+                } else if (bitmap.getAllocationByteCount() >= byteCount) {
+                    iterator.remove();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 图片解码器
+     */
+    public interface Decoder {
+
+        Decoder DEFAULT = new Decoder() {
+            @Override
+            public Bitmap decode(String path, BitmapFactory.Options options) {
+                if (!AssetArchive.isEntryPath(path)) return BitmapFactory.decodeFile(path, options);
+
+                // 资源包内的图片从条目流解码
+                InputStream in = AssetArchive.openEntry(path);
+                if (in == null) return null;
+                try {
+                    return BitmapFactory.decodeStream(in, null, options);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        };
+
+        /**
+         * 解码图片, 与 BitmapFactory.decodeFile 一致, inJustDecodeBounds 时只需填充尺寸
+         *
+         * @param path    图片路径, 资源包内的图片为 资源包路径!/名称
+         * @param options 解码参数
+         * @return 图片 或 空
+         */
+        Bitmap decode(String path, BitmapFactory.Options options);
+    }
+}
@@ -4,19 +4,44 @@ import android.text.TextUtils;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
  * Created by Alan Miu on 15/12/3.
  */
 public class FileUtils {
+    // 解压缓冲区大小
+    private static final int UNZIP_BUFFER_SIZE = 64 * 1024;
+    // 缓冲区池最多保留的数量
+    private static final int UNZIP_BUFFER_POOL_SIZE = 16;
+    // 单个并行任务最多解压的条目数, 超过时拆分
+    private static final int UNZIP_TASK_ENTRY_COUNT = 8;
+    // 解压缓冲区池, 避免每个条目重新分配
+    private static final ConcurrentLinkedQueue<byte[]> mUnzipBuffers = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger mUnzipBufferCount = new AtomicInteger(0);
+    // 并行解压线程池, 首次使用时创建
+    private static volatile ForkJoinPool mUnzipPool;
 
     /**
      * 读取文件数据
@@ -26,6 +51,34 @@ public class FileUtils {
     public static byte[] read(String path) {
         if (TextUtils.isEmpty(path)) return null;
 
+        File file = new File(path);
+        // 文件长度已知, 按长度一次分配并读满
+        if (file.isFile() && file.length() <= Integer.MAX_VALUE) {
+            FileInputStream fis = null;
+            try {
+                fis = new FileInputStream(file);
+                byte[] data = new byte[(int) file.length()];
+                int offset = 0, length;
+                while (offset < data.length && (length = fis.read(data, offset, data.length - offset)) > 0) {
+                    offset += length;
+                }
+                // 读取期间文件被截断
+                if (offset < data.length) return Arrays.copyOf(data, offset);
+                return data;
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if (fis != null) {
+                    try {
+                        fis.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            return null;
+        }
+
         try {
             return read(new FileInputStream(path));
         } catch (FileNotFoundException e) {
@@ -46,9 +99,15 @@ public class FileUtils {
         byte[] data = null;
         BufferedInputStream bis = null;
         try {
+            // available() 只是可无阻塞读取的估计值, 读到流结束为止
             bis = new BufferedInputStream(inStream);
-            data = new byte[bis.available()];
-            bis.read(data);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(32, bis.available()));
+            int length;
+            byte[] buffer = new byte[8192];
+            while ((length = bis.read(buffer, 0, buffer.length)) != -1) {
+                bos.write(buffer, 0, length);
+            }
+            data = bos.toByteArray();
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -64,6 +123,36 @@ public class FileUtils {
         return data;
     }
 
+    /**
+     * 只读内存映射文件, 不复制到堆内存
+     * @param path 文件路径
+     * @return 只读映射 或 空(超过 2GB 的文件不能映射为一个缓冲区)
+     */
+    public static MappedByteBuffer map(String path) {
+        if (TextUtils.isEmpty(path)) return null;
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(path, "r");
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) return null;
+            // 映射建立后关闭文件不影响访问
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return null;
+    }
+
     /**
      * 数据写入文件
      * @param path 文件路径
@@ -160,7 +249,8 @@ public class FileUtils {
     }
 
     /**
-     * 解压文件到指定路径下
+     * 解压文件到指定路径下.
+     * 读取中央目录后按条目并行解压, 条目名称包含 ".." 或为绝对路径时整体失败
      *
      * @param zipPath 压缩包路径
      * @param outPath 解压路径
@@ -169,15 +259,47 @@ public class FileUtils {
     public static boolean unzip(String zipPath, String outPath) {
         if (TextUtils.isEmpty(zipPath) || TextUtils.isEmpty(outPath)) return false;
 
-        // 压缩文件流
-        FileInputStream inStream = null;
+        // 解压目录
+        File outDir = new File(outPath);
+        if (!outDir.exists()) {
+            boolean isSucceed = outDir.mkdirs();
+            if (!isSucceed) return false;
+        }
+
+        ZipFile zipFile = null;
         try {
-            inStream = new FileInputStream(zipPath);
-        } catch (FileNotFoundException e) {
+            zipFile = new ZipFile(zipPath);
+            // 先创建全部目录, 文件条目之间互不依赖
+            List<ZipEntry> fileEntries = new ArrayList<>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                File file = getEntryFile(outDir, zipEntry.getName());
+                if (file == null) return false;
+
+                File dir = zipEntry.isDirectory() ? file : file.getParentFile();
+                if (!dir.exists() && !dir.mkdirs() && !dir.isDirectory()) return false;
+                if (!zipEntry.isDirectory()) fileEntries.add(zipEntry);
+            }
+
+            UnzipTask task = new UnzipTask(zipFile, outDir, fileEntries, 0, fileEntries.size(), new AtomicBoolean(false));
+            // 条目较少时在当前线程解压
+            if (fileEntries.size() <= UNZIP_TASK_ENTRY_COUNT) task.compute();
+            else getUnzipPool().invoke(task);
+            return !task.mFailed.get();
+        } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (zipFile != null) {
+                try {
+                    zipFile.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
 
-        return unzip(inStream, outPath);
+        return false;
     }
 
     /**
@@ -198,10 +320,13 @@ public class FileUtils {
 
         // 开始解压
         ZipInputStream zis = null;
+        byte[] buffer = obtainUnzipBuffer();
         try {
             zis = new ZipInputStream(inStream);
             ZipEntry zipEntry;
             while ((zipEntry = zis.getNextEntry()) != null) {
+                // 不允许写到解压目录以外
+                if (getEntryFile(outDir, zipEntry.getName()) == null) return false;
                 // 目录
                 if (zipEntry.isDirectory()) {
                     File dir = new File(outDir.getPath() + File.separator + zipEntry.getName());
@@ -220,7 +345,6 @@ public class FileUtils {
                     try {
                         fos = new FileOutputStream(file);
                         int len;
-                        byte[] buffer = new byte[1024];
                         while ((len = zis.read(buffer)) != -1) {
                             fos.write(buffer, 0, len);
                         }
@@ -242,6 +366,7 @@ public class FileUtils {
             e.printStackTrace();
             return false;
         } finally {
+            recycleUnzipBuffer(buffer);
             if (zis != null) {
                 try {
                     zis.close();
@@ -255,4 +380,113 @@ public class FileUtils {
         return true;
     }
 
+    /**
+     * 条目对应的解压文件
+     *
+     * @param outDir 解压目录
+     * @param name   条目名称
+     * @return 解压文件 或 空(绝对路径或包含 ".." 的条目)
+     */
+    private static File getEntryFile(File outDir, String name) {
+        if (TextUtils.isEmpty(name) || name.startsWith("/") || name.startsWith("\\")) return null;
+
+        for (String part : name.split("[/\\\\]")) {
+            if ("..".equals(part)) return null;
+        }
+        return new File(outDir, name);
+    }
+
+    private static ForkJoinPool getUnzipPool() {
+        ForkJoinPool pool = mUnzipPool;
+        if (pool == null) {
+            synchronized (FileUtils.class) {
+                if (mUnzipPool == null) mUnzipPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                pool = mUnzipPool;
+            }
+        }
+        return pool;
+    }
+
+    private static byte[] obtainUnzipBuffer() {
+        byte[] buffer = mUnzipBuffers.poll();
+        if (buffer == null) return new byte[UNZIP_BUFFER_SIZE];
+        mUnzipBufferCount.decrementAndGet();
+        return buffer;
+    }
+
+    private static void recycleUnzipBuffer(byte[] buffer) {
+        if (mUnzipBufferCount.incrementAndGet() <= UNZIP_BUFFER_POOL_SIZE) mUnzipBuffers.offer(buffer);
+        else mUnzipBufferCount.decrementAndGet();
+    }
+
+    /**
+     * 并行解压任务, 条目数超过阈值时对半拆分.
+     * ZipFile 的读取互斥, 解压在各线程中并行
+     */
+    private static class UnzipTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ZipFile mZipFile;
+        private final File mOutDir;
+        private final List<ZipEntry> mEntries;
+        private final int mStart;
+        private final int mEnd;
+        // 任一条目失败, 其余任务不再解压
+        private final AtomicBoolean mFailed;
+
+        UnzipTask(ZipFile zipFile, File outDir, List<ZipEntry> entries, int start, int end, AtomicBoolean failed) {
+            mZipFile = zipFile;
+            mOutDir = outDir;
+            mEntries = entries;
+            mStart = start;
+            mEnd = end;
+            mFailed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart > UNZIP_TASK_ENTRY_COUNT) {
+                int middle = (mStart + mEnd) >>> 1;
+                invokeAll(new UnzipTask(mZipFile, mOutDir, mEntries, mStart, middle, mFailed),
+                        new UnzipTask(mZipFile, mOutDir, mEntries, middle, mEnd, mFailed));
+                return;
+            }
+
+            byte[] buffer = obtainUnzipBuffer();
+            try {
+                for (int i = mStart; i < mEnd && !mFailed.get(); i++) {
+                    if (!extract(mEntries.get(i), buffer)) mFailed.set(true);
+                }
+            } finally {
+                recycleUnzipBuffer(buffer);
+            }
+        }
+
+        private boolean extract(ZipEntry zipEntry, byte[] buffer) {
+            InputStream in = null;
+            FileOutputStream fos = null;
+            try {
+                in = mZipFile.getInputStream(zipEntry);
+                fos = new FileOutputStream(new File(mOutDir, zipEntry.getName()));
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    fos.write(buffer, 0, len);
+                }
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    if (fos != null)
+                        fos.close();
+                    if (in != null)
+                        in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return false;
+        }
+    }
+
 }
@@ -4,16 +4,24 @@ import android.text.TextUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Created by Alan Miu on 15/12/3.
@@ -42,14 +50,45 @@ public class HttpRequest implements Comparable<HttpRequest> {
 
     // 请求超时时间
     private int mTimeOut = 30 * 1000;
+    // 传输层, 为空时使用默认传输层
+    private HttpTransport mTransport;
+    // 带宽限制, 为空时不限制
+    private BandwidthLimiter mBandwidthLimiter;
     // 请求监听事件
     private OnHttpRequestListener mOnHttpRequestListener;
-
-//    // 是否开启断点续传
-//    private boolean isEnableBreakpointContinuingly = false;
-
-//    // 下载总长度
-//    private int mTotalLength;
+    // 合并到本请求的其他请求的监听事件, 只接收结束回调
+    private List<OnHttpRequestListener> mAttachedListeners = new ArrayList<>();
+    // 是否已回调结束
+    private boolean isFinished = false;
+    // 重试处理, 为空时失败直接回调
+    private RetryHandler mRetryHandler;
+    // 已重试次数
+    private volatile int mRetryCount = 0;
+    // 响应流处理, 设置后响应体不再写入输出路径或内存
+    private OnResponseStreamListener mOnResponseStreamListener;
+
+    // 是否开启断点续传
+    private boolean isEnableBreakpointContinuingly = false;
+
+    // 下载总长度
+    private long mTotalLength;
+
+    // 是否接受压缩传输, 断点续传时不生效
+    private boolean isEnableCompression = false;
+    // 本次接收的传输字节数(压缩后)
+    private long mReceivedLength;
+    // 本次接收的解码字节数(解压后)
+    private long mDecodedLength;
+
+    // 响应体摘要算法, 为空时不计算
+    private String mDigestAlgorithm;
+    // 响应体摘要, 包含续传前已下载部分, 成功后可用
+    private byte[] mDigest;
+
+    // 响应状态码
+    private int mResponseCode = -1;
+    // 响应头
+    private Map<String, List<String>> mResponseHeaders;
 
     public HttpRequest(String url, Map<String, String> params, Method method, OnHttpRequestListener listener) {
         this(url, null, params, method, listener);
@@ -66,6 +105,8 @@ public class HttpRequest implements Comparable<HttpRequest> {
     public void start() {
         // 开始连接
         if (mOnHttpRequestListener != null) mOnHttpRequestListener.onStart(this);
+        mResponseCode = -1;
+        mResponseHeaders = null;
 
         // 解析Url
         URL url = null;
@@ -77,72 +118,160 @@ public class HttpRequest implements Comparable<HttpRequest> {
 
         // 校验URL
         if (url == null) {
-            if (mOnHttpRequestListener != null)
-                mOnHttpRequestListener.onFailure(this, new Exception("Url is invalid"));
+            notifyFailure(new Exception("Url is invalid"), false);
             return;
         }
 
-        // 有指定数据输出路径, 使用文件接收, 否则使用内存接收
-        OutputStream os = null;
-        if (TextUtils.isEmpty(mOutputPath)) {
-            os = new ByteArrayOutputStream();
-        } else {
-            try {
-                File file = new File(mOutputPath);
-                // 路径被目录占用, 删除
-                if (file.exists() && file.isDirectory()) file.delete();
-                // 目录被文件占用, 删除
-                File dir = file.getParentFile();
-                if (dir.exists() && dir.isFile()) dir.delete();
-                // 目录不存在, 创建
-                if (!dir.exists()) dir.mkdirs();
-                os = new FileOutputStream(mOutputPath);
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-                if (mOnHttpRequestListener != null)
-                    mOnHttpRequestListener.onFailure(this, new Exception("Output path is invalid"));
-                return;
-            }
+        // 流式处理时响应体直接交给处理方, 否则有指定数据输出路径, 使用文件接收, 否则使用内存接收
+        boolean isStreaming = mOnResponseStreamListener != null;
+        File file = null;
+        if (!isStreaming && !TextUtils.isEmpty(mOutputPath)) {
+            file = new File(mOutputPath);
+            // 路径被目录占用, 删除
+            if (file.exists() && file.isDirectory()) file.delete();
+            // 目录被文件占用, 删除
+            File dir = file.getParentFile();
+            if (dir.exists() && dir.isFile()) dir.delete();
+            // 目录不存在, 创建
+            if (!dir.exists()) dir.mkdirs();
         }
 
+        // 断点续传: 已下载长度及上次响应的校验标识
+        long offset = 0;
+        String validator = null;
+        if (isEnableBreakpointContinuingly && file != null && file.isFile() && file.length() > 0) {
+            validator = readValidator();
+            // 无校验标识无法确认服务端文件未变化, 重新下载
+            if (!TextUtils.isEmpty(validator)) offset = file.length();
+        }
+
+        // 续传的字节区间按原始数据计算, 不能与压缩传输同时使用
+        boolean isCompression = isEnableCompression && !isEnableBreakpointContinuingly;
+
         // 连接下载
-        boolean isSucceed = false;
+        OutputStream os = null;
         HttpURLConnection conn = null;
+        InputStream responseInput = null;
+        // 连接或读取异常, 关闭流后回调
+        Exception exception = null;
+        // 异常是否由不接受的响应状态引起, 否则为传输异常(连接重置、超时、提前结束等)
+        boolean isStatusRejected = false;
         try {
             // 设置通用参数
-            conn = (HttpURLConnection) url.openConnection();
+            conn = (mTransport != null ? mTransport : HttpTransport.DEFAULT).openConnection(url);
 //            conn.setRequestProperty("accept", "*/*");
-//            conn.setRequestProperty("connection", "Keep-Alive");
-            conn.setRequestProperty("Accept-Encoding", "identity");
+            conn.setRequestProperty("Connection", "Keep-Alive");
+            conn.setRequestProperty("Accept-Encoding", isCompression ? "gzip, deflate" : "identity");
             conn.setRequestProperty("user-agent", "AHNetwork(Android)");
+            // 自定义请求头
+            if (mHeaders != null) {
+                for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            // 请求剩余部分, 服务端文件变化时由 If-Range 返回完整数据
+            if (offset > 0) {
+                conn.setRequestProperty("Range", "bytes=" + offset + "-");
+                conn.setRequestProperty("If-Range", validator);
+            }
 
+            mResponseCode = conn.getResponseCode();
+            mResponseHeaders = conn.getHeaderFields();
+
+            // 条件请求命中, 服务端数据未变化
+            if (mResponseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                notifyNotModified();
+                return;
+            }
+
+            // 输出到文件时只接受完整数据或续传区间, 其他状态不打开输出文件, 保留已下载部分及续传标识
+            boolean isAccepted = file != null
+                    ? mResponseCode == HttpURLConnection.HTTP_OK || (offset > 0 && mResponseCode == HttpURLConnection.HTTP_PARTIAL)
+                    : mResponseCode >= 200 && mResponseCode < 300;
+            if (!isAccepted) {
+                // 无错误流的响应体未读取, 连接不可复用
+                if (mResponseCode < 400) conn.disconnect();
+                isStatusRejected = true;
+                throw new IOException("Unexpected http status code " + mResponseCode);
+            }
+
+            // 服务端不支持或文件已变化时从头下载
+            boolean isResumed = offset > 0 && mResponseCode == HttpURLConnection.HTTP_PARTIAL;
+            if (!isResumed) offset = 0;
+
+            // 打开输出流
+            if (isStreaming) {
+                os = null;
+            } else if (file == null) {
+                os = new ByteArrayOutputStream();
+            } else {
+                try {
+                    os = new FileOutputStream(file, isResumed);
+                } catch (FileNotFoundException e) {
+                    e.printStackTrace();
+                    // 响应体未读取, 连接不可复用
+                    conn.disconnect();
+                    notifyFailure(new Exception("Output path is invalid"), false);
+                    return;
+                }
+                // 记录本次响应的校验标识, 供中断后续传
+                if (isEnableBreakpointContinuingly && !isResumed) saveValidator(conn);
+            }
 
             // 接收数据
-            int length, progress = 0;
+            int length;
             byte[] buffer = new byte[1024];
-            InputStream input = conn.getInputStream();
-            // 数据总长度
+            // 数据总长度(传输长度, 压缩时为压缩后长度)
             int totalLength = conn.getContentLength();
-            while ((length = input.read(buffer, 0, buffer.length)) > 0) {
-                os.write(buffer, 0, length);
-                progress += length;
-                if (mOnHttpRequestListener != null)
-                    mOnHttpRequestListener.onReceive(this, length, progress, totalLength);
-            }
-
-            if (mOnHttpRequestListener != null) {
-                // 校验数据大小
-                if (totalLength == progress) {
-                    byte[] data = null;
-                    if (os instanceof ByteArrayOutputStream)
-                        data = ((ByteArrayOutputStream) os).toByteArray();
-                    mOnHttpRequestListener.onSuccess(this, data);
-                } else {
-                    mOnHttpRequestListener.onFailure(this, new Exception("Data receive exception"));
+            mTotalLength = totalLength < 0 ? -1 : offset + totalLength;
+            mReceivedLength = 0;
+            mDecodedLength = 0;
+            mDigest = null;
+            // 边接收边计算摘要, 续传时先计算已下载部分
+            MessageDigest digest = createDigest(isResumed ? file : null, offset);
+            // 统计传输字节数, 再按 Content-Encoding 解码
+            responseInput = conn.getInputStream();
+            CountInputStream countInput = new CountInputStream(responseInput);
+            InputStream decodeInput = decode(countInput, conn.getContentEncoding());
+            ReceiveInputStream input = new ReceiveInputStream(decodeInput, countInput, totalLength, digest);
+            if (isStreaming) {
+                boolean isHandled = mOnResponseStreamListener.onResponse(this, input);
+                // 处理方可能未读完全部数据(如 zip 尾部的中央目录), 读完剩余数据再校验大小
+                input.drain();
+                if (!isHandled) {
+                    notifyFailure(new Exception("Response stream handle failed"), false);
+                    return;
                 }
+            } else {
+                while ((length = input.read(buffer, 0, buffer.length)) > 0) {
+                    os.write(buffer, 0, length);
+                }
+                // 解码结束后读完传输流中剩余数据
+                input.drain();
+            }
+
+            // 校验数据大小(按传输字节数). 压缩传输且长度未知(分块传输)时, 由 gzip/zlib 校验和保证完整
+            if (totalLength == mReceivedLength || (totalLength < 0 && decodeInput != countInput)) {
+                // 下载完成, 清除续传标识
+                if (file != null) deleteValidator();
+                byte[] data = null;
+                if (os instanceof ByteArrayOutputStream)
+                    data = ((ByteArrayOutputStream) os).toByteArray();
+                if (digest != null) mDigest = digest.digest();
+                notifySuccess(data);
+            } else {
+                notifyFailure(new Exception("Data receive exception"), true);
             }
         } catch (IOException e) {
             e.printStackTrace();
+            exception = isStatusRejected && mResponseCode >= 400 ? new Exception("Http status code " + mResponseCode, e) : e;
+            // 续传区间无效, 清除已下载部分后可重新下载
+            if (isStatusRejected && mResponseCode == 416 && file != null) {
+                file.delete();
+                deleteValidator();
+            }
+            // 读完错误响应后连接可继续复用, 否则断开
+            if (conn != null && !drain(conn.getErrorStream())) conn.disconnect();
         } finally {
             if (os != null) {
                 try {
@@ -151,7 +280,185 @@ public class HttpRequest implements Comparable<HttpRequest> {
                     e.printStackTrace();
                 }
             }
+            // 响应流读完并关闭后, 连接归还连接池
+            if (responseInput != null) {
+                try {
+                    responseInput.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
+
+        // 传输异常(含收到响应状态后读取响应体时的异常)及服务端错误可重试, 其他 4xx 错误不重试
+        if (exception != null)
+            notifyFailure(exception, !isStatusRejected || mResponseCode < 400 || mResponseCode >= 500
+                    || mResponseCode == 408 || mResponseCode == 416 || mResponseCode == 429);
+    }
+
+    /**
+     * 合并相同的请求, 其监听事件在本请求结束时一并回调
+     *
+     * @param request 相同的请求
+     * @return 是否合并成功, 本请求已回调结束时失败
+     */
+    public synchronized boolean attach(HttpRequest request) {
+        if (isFinished || request == null) return false;
+
+        if (request.mOnHttpRequestListener != null) mAttachedListeners.add(request.mOnHttpRequestListener);
+        return true;
+    }
+
+    /**
+     * 标记结束, 返回需要回调的监听事件
+     */
+    private synchronized List<OnHttpRequestListener> finish() {
+        isFinished = true;
+        List<OnHttpRequestListener> listeners = new ArrayList<>(mAttachedListeners.size() + 1);
+        if (mOnHttpRequestListener != null) listeners.add(mOnHttpRequestListener);
+        listeners.addAll(mAttachedListeners);
+        return listeners;
+    }
+
+    public synchronized boolean isFinished() {
+        return isFinished;
+    }
+
+    /**
+     * 不执行请求, 直接回调失败
+     *
+     * @param exception 失败原因
+     */
+    void fail(Exception exception) {
+        notifyFailure(exception, false);
+    }
+
+    private void notifySuccess(byte[] data) {
+        if (mRetryHandler != null) mRetryHandler.onSuccess(this);
+        for (OnHttpRequestListener listener : finish()) listener.onSuccess(this, data);
+    }
+
+    /**
+     * 回调失败, 重试处理接管时不回调
+     *
+     * @param exception   失败原因
+     * @param isRetryable 是否可重试
+     */
+    private void notifyFailure(Exception exception, boolean isRetryable) {
+        if (mRetryHandler != null && mRetryHandler.onFailure(this, exception, isRetryable)) return;
+        for (OnHttpRequestListener listener : finish()) listener.onFailure(this, exception);
+    }
+
+    private void notifyNotModified() {
+        if (mRetryHandler != null) mRetryHandler.onSuccess(this);
+        for (OnHttpRequestListener listener : finish()) listener.onNotModified(this);
+    }
+
+    /**
+     * 读完并关闭流
+     *
+     * @param input 输入流
+     * @return 是否成功
+     */
+    private static boolean drain(InputStream input) {
+        if (input == null) return true;
+
+        try {
+            byte[] buffer = new byte[1024];
+            while (input.read(buffer, 0, buffer.length) > 0) ;
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 按内容编码解码响应流
+     *
+     * @param input    传输流
+     * @param encoding Content-Encoding
+     * @return 解码后的流
+     */
+    private static InputStream decode(InputStream input, String encoding) throws IOException {
+        if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding))
+            return new GZIPInputStream(input);
+        if ("deflate".equalsIgnoreCase(encoding))
+            return new InflaterInputStream(input);
+        return input;
+    }
+
+    /**
+     * 创建摘要, 续传时先计算已下载部分
+     *
+     * @param file   已下载文件, 非续传时为空
+     * @param offset 已下载长度
+     * @return 摘要 或 空(未设置算法或不支持)
+     */
+    private MessageDigest createDigest(File file, long offset) throws IOException {
+        if (TextUtils.isEmpty(mDigestAlgorithm)) return null;
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(mDigestAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (file == null || offset <= 0) return digest;
+
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            long remaining = offset;
+            int length;
+            while (remaining > 0 && (length = fis.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                digest.update(buffer, 0, length);
+                remaining -= length;
+            }
+        } finally {
+            fis.close();
+        }
+        return digest;
+    }
+
+    /**
+     * 续传校验标识文件路径
+     */
+    private String getValidatorPath() {
+        return mOutputPath + ".etag";
+    }
+
+    /**
+     * 保存响应的 ETag, 无 ETag 时使用 Last-Modified
+     *
+     * @param conn 连接
+     */
+    private void saveValidator(HttpURLConnection conn) {
+        String validator = conn.getHeaderField("ETag");
+        // 弱校验标识不能用于 If-Range
+        if (validator != null && validator.startsWith("W/")) validator = null;
+        if (TextUtils.isEmpty(validator)) validator = conn.getHeaderField("Last-Modified");
+
+        if (TextUtils.isEmpty(validator)) deleteValidator();
+        else FileUtils.write(getValidatorPath(), validator.getBytes());
+    }
+
+    private String readValidator() {
+        File file = new File(getValidatorPath());
+        if (!file.isFile()) return null;
+
+        byte[] data = FileUtils.read(file.getPath());
+        return data == null || data.length == 0 ? null : new String(data);
+    }
+
+    private void deleteValidator() {
+        new File(getValidatorPath()).delete();
     }
 
     @Override
@@ -168,6 +475,141 @@ public class HttpRequest implements Comparable<HttpRequest> {
         mOutputPath = outputPath;
     }
 
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * 设置队列优先级, 需在加入队列前设置. 加入队列后由 NetworkManager 合并相同请求时调整
+     */
+    public void setPriority(Priority priority) {
+        mPriority = priority != null ? priority : Priority.NORMAL;
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return mBandwidthLimiter;
+    }
+
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = bandwidthLimiter;
+    }
+
+    public RetryHandler getRetryHandler() {
+        return mRetryHandler;
+    }
+
+    public void setRetryHandler(RetryHandler retryHandler) {
+        mRetryHandler = retryHandler;
+    }
+
+    public int getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * 重试次数 +1, 由重试处理在重新执行前调用
+     */
+    public void increaseRetryCount() {
+        mRetryCount++;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public HttpTransport getTransport() {
+        return mTransport;
+    }
+
+    public void setTransport(HttpTransport transport) {
+        mTransport = transport;
+    }
+
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * 获取响应头, 名称不区分大小写
+     *
+     * @param name 响应头名称
+     * @return 响应头值 或 空
+     */
+    public String getResponseHeader(String name) {
+        if (mResponseHeaders == null || name == null) return null;
+
+        for (Map.Entry<String, List<String>> header : mResponseHeaders.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty())
+                return header.getValue().get(0);
+        }
+        return null;
+    }
+
+    public void setOnResponseStreamListener(OnResponseStreamListener listener) {
+        mOnResponseStreamListener = listener;
+    }
+
+    public boolean isEnableCompression() {
+        return isEnableCompression;
+    }
+
+    /**
+     * 接受 gzip/deflate 压缩传输, 开启断点续传时不生效
+     */
+    public void setEnableCompression(boolean enable) {
+        isEnableCompression = enable;
+    }
+
+    /**
+     * 本次接收的传输字节数, 压缩传输时为压缩后大小
+     */
+    public long getReceivedLength() {
+        return mReceivedLength;
+    }
+
+    /**
+     * 本次接收的解码字节数, 压缩传输时为解压后大小
+     */
+    public long getDecodedLength() {
+        return mDecodedLength;
+    }
+
+    public boolean isEnableBreakpointContinuingly() {
+        return isEnableBreakpointContinuingly;
+    }
+
+    /**
+     * 开启断点续传, 仅对指定输出路径的请求有效
+     */
+    public void setEnableBreakpointContinuingly(boolean enable) {
+        isEnableBreakpointContinuingly = enable;
+    }
+
+    public String getDigestAlgorithm() {
+        return mDigestAlgorithm;
+    }
+
+    /**
+     * 设置响应体摘要算法(如 SHA-256), 接收时计算, 不需要再次读取
+     */
+    public void setDigestAlgorithm(String algorithm) {
+        mDigestAlgorithm = algorithm;
+    }
+
+    /**
+     * 响应体(解码后)的摘要, 包含续传前已下载部分. 未设置算法或未成功时为空
+     */
+    public byte[] getDigest() {
+        return mDigest;
+    }
+
+    /**
+     * 下载总长度, 包含续传前已下载部分. 未知时为 -1
+     */
+    public long getTotalLength() {
+        return mTotalLength;
+    }
+
     /**
      * 请求监听事件
      */
@@ -181,11 +623,158 @@ public class HttpRequest implements Comparable<HttpRequest> {
         public void onReceive(HttpRequest connection, int length, int progress, int total) {
         }
 
+        /**
+         * 条件请求返回 304, 本地数据仍是最新
+         */
+        public void onNotModified(HttpRequest connection) {
+        }
+
         public abstract void onSuccess(HttpRequest connection, byte[] response);
 
         public abstract void onFailure(HttpRequest connection, Exception exception);
     }
 
+    /**
+     * 响应流处理, 在下载线程中直接消费响应体
+     */
+    public interface OnResponseStreamListener {
+        /**
+         * 处理响应流, 处理方关闭流不会断开连接
+         *
+         * @param connection 请求
+         * @param input      响应流
+         * @return 是否处理成功
+         */
+        boolean onResponse(HttpRequest connection, InputStream input) throws IOException;
+    }
+
+    /**
+     * 重试处理
+     */
+    public interface RetryHandler {
+        /**
+         * 请求成功(包括 304)
+         */
+        void onSuccess(HttpRequest request);
+
+        /**
+         * 请求失败
+         *
+         * @param request     请求
+         * @param exception   失败原因
+         * @param isRetryable 是否可重试
+         * @return 是否重试, 重试时不回调失败
+         */
+        boolean onFailure(HttpRequest request, Exception exception, boolean isRetryable);
+    }
+
+    /**
+     * 统计传输字节数的流
+     */
+    private static class CountInputStream extends FilterInputStream {
+        private long mCount = 0;
+
+        CountInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int length = super.read(buffer, offset, count);
+            if (length > 0) mCount += length;
+            return length;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long length = super.skip(count);
+            if (length > 0) mCount += length;
+            return length;
+        }
+    }
+
+    /**
+     * 统计接收进度的响应流, 进度按传输字节数计算, 同时计算解码后数据的摘要
+     */
+    private class ReceiveInputStream extends FilterInputStream {
+        private final CountInputStream mCountInput;
+        private final int mTotalLength;
+        // 摘要, 为空时不计算
+        private final MessageDigest mDigest;
+
+        ReceiveInputStream(InputStream in, CountInputStream countInput, int totalLength, MessageDigest digest) {
+            super(in);
+            mCountInput = countInput;
+            mTotalLength = totalLength;
+            mDigest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                if (mDigest != null) mDigest.update((byte) b);
+                onReceive(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int length = super.read(buffer, offset, count);
+            if (length > 0) {
+                if (mDigest != null) mDigest.update(buffer, offset, length);
+                onReceive(length);
+            }
+            return length;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // 计算摘要时跳过的数据也需读取
+            if (mDigest != null) {
+                byte[] buffer = new byte[(int) Math.min(8192, Math.max(0, count))];
+                int length = buffer.length > 0 ? read(buffer, 0, buffer.length) : 0;
+                return Math.max(0, length);
+            }
+            long length = super.skip(count);
+            if (length > 0) onReceive(length);
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // 由 HttpRequest 负责关闭连接
+        }
+
+        /**
+         * 读完剩余数据, 包括解码后传输流中的尾部数据
+         */
+        void drain() throws IOException {
+            byte[] buffer = new byte[1024];
+            while (read(buffer, 0, buffer.length) > 0) ;
+            while (mCountInput.read(buffer, 0, buffer.length) > 0) ;
+            mReceivedLength = mCountInput.mCount;
+        }
+
+        private void onReceive(long decodedLength) {
+            mDecodedLength += decodedLength;
+            int length = (int) (mCountInput.mCount - mReceivedLength);
+            mReceivedLength = mCountInput.mCount;
+            // 按传输字节数限速
+            if (mBandwidthLimiter != null) mBandwidthLimiter.acquire(length);
+            if (mOnHttpRequestListener != null && length > 0)
+                mOnHttpRequestListener.onReceive(HttpRequest.this, length, (int) mReceivedLength, mTotalLength);
+        }
+    }
+
     public enum Method {
         GET(0), POST(1);
 
@@ -207,7 +796,22 @@ public class HttpRequest implements Comparable<HttpRequest> {
     }
 
     public enum Priority {
-        VERYLOW, LOW, NORMAL, HIGH, VERYHIGH
+        VERYLOW, LOW, NORMAL, HIGH, VERYHIGH;
+
+        /**
+         * 解析优先级名称, 不区分大小写
+         *
+         * @param name     优先级名称
+         * @param fallback 无法解析时的默认值
+         */
+        public static Priority parse(String name, Priority fallback) {
+            if (name != null) {
+                for (Priority priority : values()) {
+                    if (priority.name().equalsIgnoreCase(name)) return priority;
+                }
+            }
+            return fallback;
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.autohome.ahkit.assets;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Http传输层, 负责创建连接.
+ * 默认使用系统 HttpURLConnection, 同一主机的 keep-alive 连接由系统连接池复用;
+ * 需要配置连接池或 HTTP/2 多路复用时, 依赖 OkHttp 的应用可加入 okhttp/OkHttpTransport.java, 或自行实现本接口.
+ */
+public interface HttpTransport {
+
+    HttpTransport DEFAULT = new HttpTransport() {
+        @Override
+        public HttpURLConnection openConnection(URL url) throws IOException {
+            return (HttpURLConnection) url.openConnection();
+        }
+    };
+
+    /**
+     * 创建连接
+     *
+     * @param url 链接
+     * @return 连接
+     */
+    HttpURLConnection openConnection(URL url) throws IOException;
+}
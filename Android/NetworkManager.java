@@ -1,18 +1,93 @@
 package com.autohome.ahkit.assets;
 
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Alan Miu on 15/9/10.
  */
 public class NetworkManager {
+    // 默认最大下载线程数
+    private static final int DEFAULT_MAX_THREAD_COUNT = 4;
+    // 默认空闲线程存活时间(秒)
+    private static final long DEFAULT_KEEP_ALIVE_SECONDS = 30;
+    // 默认最大重试次数
+    private static final int DEFAULT_MAX_RETRY_COUNT = 3;
+
     // 最大下载线程数
-    private int mMaxThreadCount = 4;
-    // 当前下载线程数
-    private AtomicInteger mCurrentThreadNum = new AtomicInteger(0);
-    // 下载任务队列
-    private PriorityBlockingQueue<HttpRequest> mQueue = new PriorityBlockingQueue<>();
+    private int mMaxThreadCount = DEFAULT_MAX_THREAD_COUNT;
+    // 下载线程池, 任务按优先级出队
+    private ThreadPoolExecutor mExecutor;
+    // 传输层, 请求未指定时使用
+    private HttpTransport mTransport = HttpTransport.DEFAULT;
+    // 执行中的请求, 以链接和输出路径为键, 相同请求合并
+    private final HashMap<String, HttpRequest> mInFlightRequests = new HashMap<>();
+    // 排队中尚未执行的任务, 以请求的键为键, 由 mInFlightRequests 锁保护
+    private final HashMap<String, RequestTask> mQueuedTasks = new HashMap<>();
+    // 后台请求(优先级低于 HIGH)的带宽限制, 默认不限制
+    private BandwidthLimiter mBackgroundLimiter = new BandwidthLimiter(0);
+
+    // 最大重试次数
+    private int mMaxRetryCount = DEFAULT_MAX_RETRY_COUNT;
+    // 重试基础间隔(毫秒), 每次重试翻倍
+    private long mRetryBaseDelayMillis = 1000;
+    // 重试最大间隔(毫秒)
+    private long mRetryMaxDelayMillis = 30 * 1000;
+    // 同一主机连续失败多少次后熔断
+    private int mCircuitFailureThreshold = 5;
+    // 熔断持续时间(毫秒), 之后放行请求试探
+    private long mCircuitOpenMillis = 60 * 1000;
+    // 各主机熔断状态
+    private final HashMap<String, CircuitBreaker> mCircuitBreakers = new HashMap<>();
+    // 重试延时调度
+    private ScheduledThreadPoolExecutor mRetryScheduler;
+    // 等待重试的请求, 关闭时回调取消
+    private final HashSet<HttpRequest> mPendingRetries = new HashSet<>();
+    // 重试间隔随机抖动
+    private final Random mRandom = new Random();
+    // 重试处理
+    private final HttpRequest.RetryHandler mRetryHandler = new HttpRequest.RetryHandler() {
+        @Override
+        public void onSuccess(HttpRequest request) {
+            onRequestSuccess(request);
+        }
+
+        @Override
+        public boolean onFailure(HttpRequest request, Exception exception, boolean isRetryable) {
+            return onRequestFailure(request, isRetryable);
+        }
+    };
+
+    public NetworkManager() {
+        this(DEFAULT_MAX_THREAD_COUNT, DEFAULT_KEEP_ALIVE_SECONDS);
+    }
+
+    /**
+     * @param maxThreadCount   最大下载线程数
+     * @param keepAliveSeconds 空闲线程存活时间(秒), 小于等于 0 时空闲线程立即回收
+     */
+    public NetworkManager(int maxThreadCount, long keepAliveSeconds) {
+        mMaxThreadCount = Math.max(1, maxThreadCount);
+        // 核心线程允许超时回收时存活时间必须大于 0, 最小按 1 毫秒
+        mExecutor = new ThreadPoolExecutor(mMaxThreadCount, mMaxThreadCount,
+                Math.max(1, keepAliveSeconds * 1000), TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new DownloadThreadFactory());
+        // 空闲超时后回收全部线程, 不常驻
+        mExecutor.allowCoreThreadTimeOut(true);
+        mRetryScheduler = new ScheduledThreadPoolExecutor(1, new DownloadThreadFactory());
+    }
 
     /**
      * 添加Http请求
@@ -20,30 +95,338 @@ public class NetworkManager {
      * @param request Http请求
      */
     public void addHttpRequest(HttpRequest request) {
-        mQueue.offer(request);
-        // 是否创建线程
-        if (mCurrentThreadNum.get() < mMaxThreadCount) {
-            // 当前线程数 +1
-            mCurrentThreadNum.getAndIncrement();
-            new Thread() {
-                public void run() {
-                    while (!mQueue.isEmpty()) {
-                        HttpRequest task = mQueue.poll();
-                        if (task != null) task.start();
-                    }
-                    // 当前线程数 -1
-                    mCurrentThreadNum.getAndDecrement();
-                }
-            }.start();
+        if (request == null) return;
+        // 已关闭时直接回调失败, 调用方据此释放状态
+        if (mExecutor.isShutdown()) {
+            request.fail(new Exception("NetworkManager is shutdown"));
+            return;
+        }
+
+        // 同一管理类的请求共用传输层, 复用同一主机的连接
+        if (request.getTransport() == null) request.setTransport(mTransport);
+        // 后台请求共用带宽限制, 为前台流量让出带宽
+        if (request.getBandwidthLimiter() == null && request.getPriority().compareTo(HttpRequest.Priority.HIGH) < 0)
+            request.setBandwidthLimiter(mBackgroundLimiter);
+        // 失败后按退避策略重试
+        if (request.getRetryHandler() == null) request.setRetryHandler(mRetryHandler);
+
+        // 相同请求执行中时合并, 不重复下载
+        String key = getRequestKey(request);
+        RequestTask task;
+        synchronized (mInFlightRequests) {
+            HttpRequest inFlightRequest = mInFlightRequests.get(key);
+            if (inFlightRequest != null && inFlightRequest.attach(request)) {
+                // 合并的请求优先级更高时提升执行中的请求
+                if (request.getPriority().compareTo(inFlightRequest.getPriority()) > 0)
+                    raisePriority(key, inFlightRequest, request.getPriority());
+                return;
+            }
+            mInFlightRequests.put(key, request);
+            task = new RequestTask(key, request);
+            mQueuedTasks.put(key, task);
         }
+        mExecutor.execute(task);
+    }
+
+    /**
+     * 提升请求优先级. 排队中的任务移出队列后按新优先级重新排队; 已在执行或等待重试的请求直接修改,
+     * 提升到 HIGH 及以上时不再受后台带宽限制. 需持有 mInFlightRequests 锁
+     *
+     * @param key      请求的键
+     * @param request  执行中的请求
+     * @param priority 新优先级
+     */
+    private void raisePriority(String key, HttpRequest request, HttpRequest.Priority priority) {
+        RequestTask task = mQueuedTasks.get(key);
+        // 优先级参与队列排序, 排队中的任务不能直接修改
+        boolean isRequeue = task != null && task.mRequest == request && mExecutor.remove(task);
+        request.setPriority(priority);
+        if (request.getBandwidthLimiter() == mBackgroundLimiter && priority.compareTo(HttpRequest.Priority.HIGH) >= 0)
+            request.setBandwidthLimiter(null);
+        if (isRequeue) mExecutor.execute(task);
+    }
+
+    public HttpTransport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * 设置传输层, 对之后添加的请求生效
+     */
+    public void setTransport(HttpTransport transport) {
+        mTransport = transport != null ? transport : HttpTransport.DEFAULT;
+    }
+
+    public long getBackgroundBandwidthLimit() {
+        return mBackgroundLimiter.getBytesPerSecond();
+    }
+
+    /**
+     * 设置后台请求(优先级低于 HIGH)的总带宽, 对执行中的请求立即生效
+     *
+     * @param bytesPerSecond 每秒字节数, 小于等于 0 时不限制
+     */
+    public void setBackgroundBandwidthLimit(long bytesPerSecond) {
+        mBackgroundLimiter.setBytesPerSecond(bytesPerSecond);
+    }
+
+    public int getMaxRetryCount() {
+        return mMaxRetryCount;
+    }
+
+    /**
+     * 设置最大重试次数, 0 为不重试
+     */
+    public void setMaxRetryCount(int maxRetryCount) {
+        mMaxRetryCount = Math.max(0, maxRetryCount);
+    }
+
+    /**
+     * 设置重试间隔, 第 n 次重试间隔为 min(base * 2^n, max), 并随机抖动一半
+     *
+     * @param baseDelayMillis 基础间隔(毫秒)
+     * @param maxDelayMillis  最大间隔(毫秒)
+     */
+    public void setRetryDelay(long baseDelayMillis, long maxDelayMillis) {
+        mRetryBaseDelayMillis = Math.max(0, baseDelayMillis);
+        mRetryMaxDelayMillis = Math.max(mRetryBaseDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * 设置主机熔断策略
+     *
+     * @param failureThreshold 连续失败多少次后熔断, 小于等于 0 时不熔断
+     * @param openMillis       熔断持续时间(毫秒)
+     */
+    public void setCircuitBreaker(int failureThreshold, long openMillis) {
+        mCircuitFailureThreshold = failureThreshold;
+        mCircuitOpenMillis = Math.max(0, openMillis);
     }
 
     public int getMaxThreadCount() {
         return mMaxThreadCount;
     }
 
-    public void setMaxThreadCount(int maxThreadCount) {
+    public synchronized void setMaxThreadCount(int maxThreadCount) {
+        if (maxThreadCount < 1) return;
+
+        // 扩容先调整最大值, 缩容先调整核心数, 保证 core <= max
+        if (maxThreadCount > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(maxThreadCount);
+            mExecutor.setCorePoolSize(maxThreadCount);
+        } else {
+            mExecutor.setCorePoolSize(maxThreadCount);
+            mExecutor.setMaximumPoolSize(maxThreadCount);
+        }
         mMaxThreadCount = maxThreadCount;
     }
 
+    /**
+     * 关闭下载线程池, 已提交的请求会继续执行完毕.
+     * 等待中的重试及超时后未执行的请求不再执行, 回调失败
+     *
+     * @param timeoutMillis 等待时间, 超时后中断仍在执行的请求
+     * @return 是否在等待时间内全部结束
+     */
+    public boolean shutdown(long timeoutMillis) {
+        // 等待中的重试不再执行
+        mRetryScheduler.shutdownNow();
+        mExecutor.shutdown();
+        List<HttpRequest> pendingRetries;
+        synchronized (mPendingRetries) {
+            pendingRetries = new ArrayList<>(mPendingRetries);
+            mPendingRetries.clear();
+        }
+        for (HttpRequest request : pendingRetries) cancel(request);
+
+        try {
+            if (mExecutor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Runnable runnable : mExecutor.shutdownNow()) {
+            if (runnable instanceof RequestTask) cancel(((RequestTask) runnable).mRequest);
+        }
+        return false;
+    }
+
+    /**
+     * 取消未执行的请求, 回调失败并移出执行中的请求
+     */
+    private void cancel(HttpRequest request) {
+        String key = getRequestKey(request);
+        synchronized (mInFlightRequests) {
+            if (mInFlightRequests.get(key) == request) mInFlightRequests.remove(key);
+            mQueuedTasks.remove(key);
+        }
+        request.fail(new Exception("Request cancelled"));
+    }
+
+    /**
+     * 请求成功, 重置主机熔断状态
+     */
+    private void onRequestSuccess(HttpRequest request) {
+        String host = getHost(request);
+        if (host == null) return;
+
+        synchronized (mCircuitBreakers) {
+            mCircuitBreakers.remove(host);
+        }
+    }
+
+    /**
+     * 请求失败, 记录主机失败次数并决定是否重试
+     *
+     * @return 是否重试
+     */
+    private boolean onRequestFailure(final HttpRequest request, boolean isRetryable) {
+        String host = getHost(request);
+        boolean isCircuitOpen = false;
+        if (host != null && isRetryable) {
+            synchronized (mCircuitBreakers) {
+                CircuitBreaker breaker = mCircuitBreakers.get(host);
+                if (breaker == null) {
+                    breaker = new CircuitBreaker();
+                    mCircuitBreakers.put(host, breaker);
+                }
+                breaker.mFailureCount++;
+                if (mCircuitFailureThreshold > 0 && breaker.mFailureCount >= mCircuitFailureThreshold) {
+                    breaker.mOpenUntil = System.currentTimeMillis() + mCircuitOpenMillis;
+                    isCircuitOpen = true;
+                }
+            }
+        }
+
+        if (!isRetryable || isCircuitOpen || request.getRetryCount() >= mMaxRetryCount || mRetryScheduler.isShutdown())
+            return false;
+
+        // 指数退避, 在 [delay/2, delay] 内随机抖动, 避免重试集中
+        long delay = Math.min(mRetryMaxDelayMillis, mRetryBaseDelayMillis << Math.min(request.getRetryCount(), 20));
+        long halfDelay = delay / 2;
+        synchronized (mRandom) {
+            delay = halfDelay + (long) (mRandom.nextDouble() * (delay - halfDelay));
+        }
+        request.increaseRetryCount();
+        synchronized (mPendingRetries) {
+            mPendingRetries.add(request);
+        }
+        Runnable retryTask = new Runnable() {
+            @Override
+            public void run() {
+                // 已由关闭流程取消
+                synchronized (mPendingRetries) {
+                    if (!mPendingRetries.remove(request)) return;
+                }
+                String key = getRequestKey(request);
+                RequestTask task = new RequestTask(key, request);
+                synchronized (mInFlightRequests) {
+                    mQueuedTasks.put(key, task);
+                }
+                try {
+                    mExecutor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // 下载线程池已关闭
+                    cancel(request);
+                }
+            }
+        };
+        try {
+            mRetryScheduler.schedule(retryTask, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 期间已关闭, 不再重试. 已由关闭流程取消时不重复回调
+            synchronized (mPendingRetries) {
+                return !mPendingRetries.remove(request);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 主机是否处于熔断中
+     */
+    private boolean isCircuitOpen(String host) {
+        if (host == null) return false;
+
+        synchronized (mCircuitBreakers) {
+            CircuitBreaker breaker = mCircuitBreakers.get(host);
+            return breaker != null && breaker.mOpenUntil > System.currentTimeMillis();
+        }
+    }
+
+    private static String getRequestKey(HttpRequest request) {
+        return request.getUrl() + "|" + request.getOutputPath();
+    }
+
+    private static String getHost(HttpRequest request) {
+        try {
+            return new URL(request.getUrl()).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 主机熔断状态
+     */
+    private static class CircuitBreaker {
+        // 连续失败次数
+        private int mFailureCount;
+        // 熔断截止时间
+        private long mOpenUntil;
+    }
+
+    /**
+     * 线程池任务, 按请求优先级排序
+     */
+    private class RequestTask implements Runnable, Comparable<RequestTask> {
+        private final String mKey;
+        private final HttpRequest mRequest;
+
+        RequestTask(String key, HttpRequest request) {
+            mKey = key;
+            mRequest = request;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mInFlightRequests) {
+                if (mQueuedTasks.get(mKey) == this) mQueuedTasks.remove(mKey);
+            }
+            try {
+                // 主机熔断中直接失败, 不再请求
+                if (isCircuitOpen(getHost(mRequest)))
+                    mRequest.fail(new Exception("Circuit breaker is open for host"));
+                else
+                    mRequest.start();
+            } finally {
+                // 等待重试时仍视为执行中, 相同请求继续合并
+                if (mRequest.isFinished()) {
+                    synchronized (mInFlightRequests) {
+                        if (mInFlightRequests.get(mKey) == mRequest) mInFlightRequests.remove(mKey);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(RequestTask another) {
+            return mRequest.compareTo(another.mRequest);
+        }
+    }
+
+    /**
+     * 下载线程工厂, 后台优先级守护线程
+     */
+    private static class DownloadThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCounter = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AssetsDownload-" + mCounter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY + 1);
+            return thread;
+        }
+    }
+
 }
@@ -0,0 +1,207 @@
+package com.autohome.ahkit.assets;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 基于 OkHttp 的传输层.
+ * 同一主机的连接由 ConnectionPool 复用, 服务端支持时通过 HTTP/2 多路复用, 多个资源包并行下载共用一个连接.
+ * 可选实现, 需要应用依赖 OkHttp 3.x, 不依赖 OkHttp 时不要加入本目录
+ */
+public class OkHttpTransport implements HttpTransport {
+    // 默认最多保留的空闲连接数
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    // 默认空闲连接保留时间(分钟)
+    private static final long DEFAULT_KEEP_ALIVE_DURATION = 5;
+
+    private final OkHttpClient mClient;
+
+    public OkHttpTransport() {
+        this(new ConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_DURATION, TimeUnit.MINUTES));
+    }
+
+    /**
+     * @param connectionPool 连接池, 可与应用其他 OkHttpClient 共用
+     */
+    public OkHttpTransport(ConnectionPool connectionPool) {
+        this(new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .build());
+    }
+
+    /**
+     * @param client 已配置的客户端, 连接池及协议以其设置为准
+     */
+    public OkHttpTransport(OkHttpClient client) {
+        mClient = client;
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        return new OkHttpURLConnection(url, mClient);
+    }
+
+    /**
+     * 以 HttpURLConnection 接口访问 OkHttp 请求, 只支持无请求体的请求.
+     * 响应流读完并关闭后连接归还连接池
+     */
+    private static class OkHttpURLConnection extends HttpURLConnection {
+        private final OkHttpClient mClient;
+        // 请求头
+        private final Headers.Builder mRequestHeaders = new Headers.Builder();
+        private Call mCall;
+        private Response mResponse;
+        // 无响应体的响应已关闭, 返回空流
+        private boolean isBodyClosed = false;
+
+        OkHttpURLConnection(URL url, OkHttpClient client) {
+            super(url);
+            mClient = client;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (mResponse != null) return;
+
+            // 超时及重定向按本连接设置, 共用同一连接池
+            OkHttpClient.Builder builder = mClient.newBuilder()
+                    .followRedirects(getInstanceFollowRedirects())
+                    .followSslRedirects(getInstanceFollowRedirects());
+            if (getConnectTimeout() > 0) builder.connectTimeout(getConnectTimeout(), TimeUnit.MILLISECONDS);
+            if (getReadTimeout() > 0) builder.readTimeout(getReadTimeout(), TimeUnit.MILLISECONDS);
+
+            Request request = new Request.Builder()
+                    .url(getURL())
+                    .headers(mRequestHeaders.build())
+                    .method(getRequestMethod(), null)
+                    .build();
+            mCall = builder.build().newCall(request);
+            mResponse = mCall.execute();
+            connected = true;
+            responseCode = mResponse.code();
+            responseMessage = mResponse.message();
+
+            // 无响应体时立即关闭, 连接归还连接池
+            if (responseCode == HTTP_NOT_MODIFIED || responseCode == HTTP_NO_CONTENT) {
+                mResponse.close();
+                isBodyClosed = true;
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            if (mCall != null) mCall.cancel();
+            if (mResponse != null) mResponse.close();
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void setRequestMethod(String method) throws ProtocolException {
+            if (!"GET".equals(method) && !"HEAD".equals(method))
+                throw new ProtocolException("Unsupported method: " + method);
+            super.setRequestMethod(method);
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            if (connected) throw new IllegalStateException("Already connected");
+            if (key != null && value != null) mRequestHeaders.set(key, value);
+        }
+
+        @Override
+        public void addRequestProperty(String key, String value) {
+            if (connected) throw new IllegalStateException("Already connected");
+            if (key != null && value != null) mRequestHeaders.add(key, value);
+        }
+
+        @Override
+        public String getRequestProperty(String key) {
+            return key != null ? mRequestHeaders.get(key) : null;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            connect();
+            return responseCode;
+        }
+
+        @Override
+        public String getResponseMessage() throws IOException {
+            connect();
+            return responseMessage;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            Response response = getResponse();
+            return response != null && name != null ? response.header(name) : null;
+        }
+
+        @Override
+        public String getHeaderFieldKey(int n) {
+            Response response = getResponse();
+            return response != null && n >= 0 && n < response.headers().size() ? response.headers().name(n) : null;
+        }
+
+        @Override
+        public String getHeaderField(int n) {
+            Response response = getResponse();
+            return response != null && n >= 0 && n < response.headers().size() ? response.headers().value(n) : null;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            Response response = getResponse();
+            return response != null ? response.headers().toMultimap() : Collections.<String, List<String>>emptyMap();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            // 与 HttpURLConnection 一致, 错误响应从 getErrorStream 读取
+            if (responseCode >= HTTP_BAD_REQUEST) throw new FileNotFoundException(getURL().toString());
+            return isBodyClosed ? new ByteArrayInputStream(new byte[0]) : mResponse.body().byteStream();
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            if (mResponse == null || responseCode < HTTP_BAD_REQUEST) return null;
+            return mResponse.body().byteStream();
+        }
+
+        /**
+         * 连接并返回响应, 失败时为空
+         */
+        private Response getResponse() {
+            try {
+                connect();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return mResponse;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.autohome.ahkit.assets;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.ConnectionPool;
+
+/**
+ * 传输层连接复用基准测试, 不随 SDK 发布.
+ * 本地启动一个 HTTP/1.1 keep-alive 服务模拟 CDN, 每个新连接等待一段时间模拟 TCP+TLS 握手,
+ * 分别用不复用连接的 OkHttpTransport、带连接池的 OkHttpTransport 及系统 HttpURLConnection 顺序请求,
+ * 输出耗时与建立的连接数.
+ * 运行: java -cp okhttp.jar:okio.jar:classes com.autohome.ahkit.assets.TransportBenchmark [请求数] [握手毫秒] [响应字节数]
+ */
+public class TransportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int requestCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int handshakeMillis = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int bodySize = args.length > 2 ? Integer.parseInt(args[2]) : 16 * 1024;
+
+        StandInServer server = new StandInServer(handshakeMillis, bodySize);
+        server.start();
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getPort() + "/config.json");
+            // 预热, 排除类加载的影响
+            run(new OkHttpTransport(), url, 5);
+            run(HttpTransport.DEFAULT, url, 5);
+
+            report("OkHttp 无连接池", new OkHttpTransport(new ConnectionPool(0, 1, TimeUnit.MILLISECONDS)), url, requestCount, server);
+            report("OkHttp 连接池", new OkHttpTransport(), url, requestCount, server);
+            report("HttpURLConnection", HttpTransport.DEFAULT, url, requestCount, server);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void report(String name, HttpTransport transport, URL url, int count, StandInServer server) throws IOException {
+        int connections = server.getConnectionCount();
+        long start = System.nanoTime();
+        run(transport, url, count);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(String.format("%-20s 请求 %d 次, 耗时 %d ms, 平均 %.1f ms, 新建连接 %d",
+                name, count, elapsed, (double) elapsed / count, server.getConnectionCount() - connections));
+    }
+
+    /**
+     * 顺序请求并读完响应体, 与 HttpRequest 的读取方式一致
+     */
+    private static void run(HttpTransport transport, URL url, int count) throws IOException {
+        byte[] buffer = new byte[8192];
+        for (int i = 0; i < count; i++) {
+            HttpURLConnection conn = transport.openConnection(url);
+            conn.setConnectTimeout(10 * 1000);
+            conn.setReadTimeout(10 * 1000);
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK)
+                throw new IOException("Unexpected http status code " + conn.getResponseCode());
+            InputStream in = conn.getInputStream();
+            try {
+                while (in.read(buffer) != -1) {
+                    // 丢弃响应体
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * 本地 HTTP/1.1 服务, 统计建立的连接数
+     */
+    private static class StandInServer {
+        // 模拟握手耗时(毫秒)
+        private final int mHandshakeMillis;
+        // 响应体
+        private final byte[] mBody;
+        // 已建立的连接数
+        private final AtomicInteger mConnectionCount = new AtomicInteger();
+        private ServerSocket mServerSocket;
+
+        StandInServer(int handshakeMillis, int bodySize) {
+            mHandshakeMillis = handshakeMillis;
+            mBody = new byte[bodySize];
+        }
+
+        void start() throws IOException {
+            mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread acceptThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!mServerSocket.isClosed()) {
+                        try {
+                            final Socket socket = mServerSocket.accept();
+                            mConnectionCount.incrementAndGet();
+                            Thread thread = new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    serve(socket);
+                                }
+                            });
+                            thread.setDaemon(true);
+                            thread.start();
+                        } catch (IOException e) {
+                            // 服务已关闭
+                        }
+                    }
+                }
+            });
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        void stop() throws IOException {
+            mServerSocket.close();
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        int getConnectionCount() {
+            return mConnectionCount.get();
+        }
+
+        /**
+         * 新连接先等待模拟握手, 之后在同一连接上依次响应请求, 直到客户端关闭或要求关闭
+         */
+        private void serve(Socket socket) {
+            try {
+                Thread.sleep(mHandshakeMillis);
+                socket.setTcpNoDelay(true);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                OutputStream out = socket.getOutputStream();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+
+                    boolean isClose = false;
+                    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                        if (line.toLowerCase().startsWith("connection:") && line.toLowerCase().contains("close"))
+                            isClose = true;
+                    }
+                    String header = "HTTP/1.1 200 OK\r\n"
+                            + "Content-Type: application/octet-stream\r\n"
+                            + "Content-Length: " + mBody.length + "\r\n"
+                            + (isClose ? "Connection: close\r\n" : "")
+                            + "\r\n";
+                    // 响应头与响应体一次写出, 避免 Nagle 与延迟确认叠加的等待
+                    byte[] headerBytes = header.getBytes("ISO-8859-1");
+                    byte[] response = new byte[headerBytes.length + mBody.length];
+                    System.arraycopy(headerBytes, 0, response, 0, headerBytes.length);
+                    System.arraycopy(mBody, 0, response, headerBytes.length, mBody.length);
+                    out.write(response);
+                    out.flush();
+                    if (isClose) break;
+                }
+            } catch (IOException e) {
+                // 客户端已断开
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}